@@ -25,11 +25,18 @@ int loopMode = 0;
 int noLoopBtnWidth = 120;
 int fadeInFadeOutBtnWidth = 120;
 int crossfadeBtnWidth = 120;
+int liveBtnWidth = 120;
 
 int buttonY = (drawingAreaHeight * displayScale) + (toolbarHeight - buttonHeight)/2;
 
 
 boolean isRecording = false;
+EncoderStream encoder;
+// First fadeSecs of frames, kept in memory for crossfading into the end of the loop.
+int[][] crossfadeFrames;
+// When live, every frame is published to the GSTShmFeed pattern through shared memory.
+boolean isLive = false;
+FrameRingWriter frameRing;
 int frameCounter = 0;
 PGraphics drawingBuffer;
 
@@ -53,6 +60,10 @@ void draw() {
   
   drawingBuffer.endDraw();
   
+  if (isLive) {
+    publishLiveFrame();
+  }
+  
   // Display scaled-up version of the buffer
   pushMatrix();
   scale(displayScale);  // Scale up both dimensions
@@ -60,33 +71,79 @@ void draw() {
   popMatrix();
   
   
-  // Only record the specified length of video frames.  Also, once we are done,
-  // write the ffmpeg wrapper scripts.
+  // Only record the specified length of video frames.  Once we are done, close the
+  // encoder's input and wait for it to finish writing the video.
   if (isRecording && frameCounter >= recordLengthSeconds * videoFPS) {
     isRecording = false;
-    if (loopMode == 0) 
-      generateVideoFile(ffmpegNoLoop());
-    if (loopMode == 1) 
-      generateVideoFile(ffmpegFadeInOut(fadeSecs, recordLengthSeconds));
-    if (loopMode == 2) 
-      generateVideoFile(ffmpegCrossFade(fadeSecs, recordLengthSeconds));
+    stopRecording();
   }
 
   renderToolbar();
   
-  // If recording, save the frame
+  // If recording, stream the unscaled frame to the encoder
   if (isRecording) {
-    // Make sure the frames directory exists
-    File framesDir = new File(sketchPath("frames"));
-    if (!framesDir.exists()) {
-      framesDir.mkdir();
-    }
-    // Save the unscaled buffer to file
-    drawingBuffer.save(sketchPath("frames") + "/frame" + nf(frameCounter, 4) + ".png");
+    drawingBuffer.loadPixels();
+    recordFrame(frameCounter, drawingBuffer.pixels);
     frameCounter++;
   }
 }
 
+void startRecording() {
+  encoder = new EncoderStream(drawingAreaWidth, drawingAreaHeight, encoderQueueFrames);
+  crossfadeFrames = new int[fadeSecs * videoFPS][];
+  try {
+    encoder.start(ffmpegCommand(), new File(sketchPath()));
+  } catch (IOException e) {
+    println("Error starting ffmpeg: " + e.getMessage());
+    encoder = null;
+    isRecording = false;
+  }
+}
+
+void stopRecording() {
+  if (encoder == null) {
+    return;
+  }
+  int exitCode = encoder.finish();
+  if (exitCode == 0) {
+    println("Wrote " + sketchPath("output.mp4"));
+  }
+  encoder = null;
+  crossfadeFrames = null;
+}
+
+/**
+ * Applies the loop mode to a frame and hands it to the encoder.  For a crossfade loop the first fadeSecs of
+ * frames are held back and mixed into the last fadeSecs, so the output is fadeSecs shorter than the recording
+ * and its last frame flows into its first.
+ */
+void recordFrame(int frameNumber, int[] pixels) {
+  if (encoder == null) {
+    return;
+  }
+  int totalFrames = recordLengthSeconds * videoFPS;
+  int fadeFrames = fadeSecs * videoFPS;
+  if (loopMode == 1) {
+    float alpha = 1;
+    if (frameNumber < fadeFrames)
+      alpha = (float) frameNumber / fadeFrames;
+    else if (frameNumber >= totalFrames - fadeFrames)
+      alpha = (float) (totalFrames - 1 - frameNumber) / fadeFrames;
+    encoder.submit(pixels, alpha, null, 0);
+  } else if (loopMode == 2) {
+    if (frameNumber < fadeFrames) {
+      crossfadeFrames[frameNumber] = Arrays.copyOf(pixels, pixels.length);
+    } else if (frameNumber < totalFrames - fadeFrames) {
+      encoder.submit(pixels, 1, null, 0);
+    } else {
+      int fadeIndex = frameNumber - (totalFrames - fadeFrames);
+      encoder.submit(pixels, 1, crossfadeFrames[fadeIndex], (float) fadeIndex / fadeFrames);
+    }
+  } else {
+    encoder.submit(pixels, 1, null, 0);
+  }
+}
+
 void renderToolbar() {
   // Draw toolbar background
   fill(200);
@@ -149,6 +206,37 @@ void renderToolbar() {
   rect(buttonStart, buttonY, crossfadeBtnWidth, buttonHeight);
   fill(0);
   text("Crossfade", buttonStart + crossfadeBtnWidth/2, toolbarTextY);  
+  
+  // Live button.
+  buttonStart += crossfadeBtnWidth + buttonPadding;
+  if (isLive)
+    fill(255, 255, 0);
+  else
+    fill(180, 180, 180);
+  rect(buttonStart, buttonY, liveBtnWidth, buttonHeight);
+  fill(0);
+  text(isLive ? "Stop Live" : "Go Live", buttonStart + liveBtnWidth/2, toolbarTextY);
+}
+
+void publishLiveFrame() {
+  if (frameRing == null) {
+    try {
+      frameRing = new FrameRingWriter(frameRingPath, drawingAreaWidth, drawingAreaHeight, frameRingSlots);
+      println("Publishing live frames to " + frameRingPath);
+    } catch (IOException e) {
+      println("Error opening frame ring: " + e.getMessage());
+      isLive = false;
+      return;
+    }
+  }
+  drawingBuffer.loadPixels();
+  frameRing.write(drawingBuffer.pixels);
+}
+
+boolean liveBtnPressed(int x, int y) {
+  int buttonStart = buttonPadding + buttonWidth + buttonPadding;
+  buttonStart += noLoopBtnWidth + buttonPadding + fadeInFadeOutBtnWidth + buttonPadding + crossfadeBtnWidth + buttonPadding;
+  return y > buttonY && x >= buttonStart && x <= buttonStart + liveBtnWidth;
 }
 
 void writeToFile(String contents, String filename) {
@@ -201,16 +289,19 @@ void mousePressed() {
         // Start recording
         isRecording = true;
         frameCounter = 0; // Reset frame counter when starting new recording
-        cleanPreviousFrames();
+        startRecording();
       } else {
         // Stop recording
         isRecording = false;
+        stopRecording();
       }
     }
   }
   int loopBtn = loopBtnPressed(mouseX, mouseY);
   if (loopBtn != -1)
     loopMode = loopBtn;
+  if (liveBtnPressed(mouseX, mouseY))
+    isLive = !isLive;
 }
 
 int loopBtnPressed(int x, int y) {
@@ -247,155 +338,28 @@ double[] palette0(double t) {
 }
 
 
-String ffmpegNoLoop() {
- return "ffmpeg -y -i frame%4d.png -c:v libx264 -crf " + h264crf + " -vf format=yuv420p -movflags +faststart output.mp4";
-}
-
-String ffmpegFadeInOut(int fadeSecs, int videoLengthSecs) {
-  float fadeOutStartSecs = videoLengthSecs - fadeSecs;
-  return "ffmpeg -y -i frame%4d.png -c:v libx264 -crf " + h264crf + " -vf fade=in:0:d=5,fade=out:st=" + fadeOutStartSecs + ":d=" + fadeSecs + ",format=yuv420p -movflags +faststart output.mp4";
-}
-
-// https://stackoverflow.com/questions/38186672/ffmpeg-make-a-seamless-loop-with-a-crossfade/38189232#38189232
-// ffmpeg -i video.mp4 -filter_complex
-//        "[0]split[body][pre];
-//         [pre]trim=duration=1,format=yuva420p,fade=d=1:alpha=1,setpts=PTS+(28/TB)[jt];
-//         [body]trim=1,setpts=PTS-STARTPTS[main];
-//         [main][jt]overlay"   output.mp4
-         
-String ffmpegCrossFade(int fadeSecs, int videoLengthSecs) {
-  int unmixedSecs = videoLengthSecs - 1 * fadeSecs;
-  return "ffmpeg -y -i frame%4d.png -c:v libx264 -crf " + h264crf + " -filter_complex \"[0]split[body][pre];" +
-  "[pre]trim=duration=" + fadeSecs + 
-  ",format=yuv420p,fade=d=" + fadeSecs + ":alpha=" + 1 + ",setpts=PTS+(" + unmixedSecs + "/TB)[jt];" +
-  "[body]trim=" + fadeSecs + ",setpts=PTS-STARTPTS[main];" +
-  "[main][jt]overlay\" output.mp4";
-}
-
-void generateVideoFile(String ffmpegCmd) {
-  String response = executeWindowsCommand(ffmpegCmd, sketchPath() + File.separator + "frames");
-  if (response != null) {
-    System.out.println(response);
-  }
-}
-
-String executeWindowsCommand(String command, String workingDir) {
-  // StringBuilder to store the command output
-  StringBuilder output = new StringBuilder();
-  String originalDir = System.getProperty("user.dir");
-  
-  try {
-    if (workingDir != null && !workingDir.isEmpty()) {
-      System.setProperty("user.dir", workingDir);
-    }
-    // Create ProcessBuilder instance for Windows command interpreter
-    ProcessBuilder processBuilder = new ProcessBuilder("cmd.exe", "/c", command);
-    processBuilder.directory(new File(workingDir));
-    
-    // Redirect error stream to output stream
-    processBuilder.redirectErrorStream(true);
-    
-    // Start the process
-    Process process = processBuilder.start();
-    
-    // Read the output
-    BufferedReader reader = new BufferedReader(
-      new InputStreamReader(process.getInputStream(), "UTF-8")
-    );
-    
-    String line;
-    // Read line by line and append to output
-    while ((line = reader.readLine()) != null) {
-      output.append(line).append("\n");
-    }
-    
-    // Wait for the process to complete
-    int exitCode = process.waitFor();
-    
-    // Check if process completed successfully
-    if (exitCode != 0) {
-      println("Warning: Command exited with code " + exitCode);
-    }
-    
-    // Close the reader
-    reader.close();
-    
-  } catch (IOException e) {
-    println("Error executing command: " + e.getMessage());
-    return "Error: " + e.getMessage();
-  } catch (InterruptedException e) {
-    println("Command execution interrupted: " + e.getMessage());
-    Thread.currentThread().interrupt(); // Restore interrupted status
-    return "Error: Command interrupted";
-  } finally {
-    System.setProperty("user.dir", originalDir);
-  }
-  
-  return output.toString();
-}
-
-public void cleanPreviousFrames() {
-  try {
-    int deleted = deleteMatchingFiles("*.png", "frames");
-    System.out.println("Cleaned " + deleted + " previous frames");
-  } catch (IOException ioex) {
-    System.err.println("Error cleaning pre-existing image frames: " + ioex.getMessage());
-  }
-}
-
 /**
- * Deletes all files in the specified directory that match the given glob pattern.
- * 
- * @param glob The glob pattern to match files against (e.g., "*.png")
- * @param targetDir The directory path where to delete matching files
- * @return The number of files deleted
- * @throws IOException If there's an error accessing the directory or deleting files
-*/
-public int deleteMatchingFiles(String glob, String targetDir) throws IOException {
-    // Convert directory string to Path
-    Path dirPath = Paths.get(targetDir);
-    
-    // Verify directory exists and is actually a directory
-    if (!Files.exists(dirPath)) {
-      throw new IOException("Directory does not exist: " + targetDir);
-    }
-    if (!Files.isDirectory(dirPath)) {
-      throw new IOException("Path is not a directory: " + targetDir);
-    }
-
-    // Create a PathMatcher for the glob pattern
-    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
-    
-    // Counter for deleted files
-    int deletedCount = 0;
-
-    // Use try-with-resources to ensure the stream is closed
-    try (Stream<Path> paths = Files.list(dirPath)) {
-      // Find and delete matching files
-      deletedCount = paths
-          .filter(path -> matcher.matches(path.getFileName()))
-          .mapToInt(path -> {
-              try {
-                Files.delete(path);
-                return 1;
-              } catch (IOException e) {
-                System.err.println("Failed to delete file: " + path + " - " + e.getMessage());
-                return 0;
-              }
-            })
-            .sum();
-    }
-
-    return deletedCount;
+ * ffmpeg reads BGRA frames from stdin at the recording resolution and frame rate.  Fades and crossfades are
+ * applied to the frames before they are streamed, so the encode is a single pass with no filter graph.
+ */
+List<String> ffmpegCommand() {
+  return Arrays.asList(
+    "ffmpeg", "-y", "-loglevel", "error",
+    "-f", "rawvideo", "-pix_fmt", "bgra",
+    "-s", drawingAreaWidth + "x" + drawingAreaHeight,
+    "-r", "" + videoFPS,
+    "-i", "-",
+    "-c:v", "libx264", "-crf", "" + h264crf,
+    "-pix_fmt", "yuv420p", "-movflags", "+faststart",
+    "output.mp4");
 }
-    
+
 //
 //
 // Implement your custom drawing below.
 //
-// Once your frames are recorded in the frames/ directory, construct a video file with ffmpeg:
-//
-// ffmpeg -i frame%4d.png -vf format=yuv420p -movflags +faststart output.mp4
+// While recording, frames are streamed straight into ffmpeg which writes output.mp4 in the sketch
+// directory.  See ffmpegCommand().
 //
 // In order to have a non-glitching looping video you can implement an appropriate visual
 // that has a start time and end time where the end visual is the same as the start visual.
@@ -403,13 +367,8 @@ public int deleteMatchingFiles(String glob, String targetDir) throws IOException
 // time.
 //
 // Another option is to fade in and fade out the video which means the looping points will be
-// black.  Fading can be achieved with the appropriate ffmpeg video filter arguments.  The fade
-// out must specify a start time, so you will need to know the length of the video.  The below
-// assumes 29 seconds.
-//
-// ffmpeg -i frame%4d.png -vf fade=in:0:d=5,fade=out:st=24:d=5,format=yuv420p -movflags +faststart output.mp4
-//
-// Another option is to crossfade the end of the video with it's own start.  A couple links:
+// black (Fade In Out).  Another option is to crossfade the end of the video with it's own start
+// (Crossfade).  Both are applied in recordFrame() as the frames are streamed.  A couple links:
 // https://stackoverflow.com/questions/60043174/cross-fade-video-to-itself-with-ffmpeg-for-seamless-looping
 // https://stackoverflow.com/questions/38186672/ffmpeg-make-a-seamless-loop-with-a-crossfade/38189232#38189232
 
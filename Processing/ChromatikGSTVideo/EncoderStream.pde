@@ -0,0 +1,148 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+//
+// Streams raw frames to an ffmpeg process over stdin.  Frames are converted to BGRA bytes on the
+// sketch thread and written to ffmpeg by a background thread through a bounded queue, so nothing
+// intermediate is written to disk.  If the encoder falls behind, submit() blocks rather than dropping
+// frames.  Once ffmpeg has exited, frames are dropped instead.
+//
+int encoderQueueFrames = 60;
+
+class EncoderStream {
+  final byte[] POISON = new byte[0];
+  final int width;
+  final int height;
+  final BlockingQueue<byte[]> queue;
+  Process process;
+  Thread writerThread;
+  volatile IOException writeError = null;
+
+  EncoderStream(int width, int height, int queueFrames) {
+    this.width = width;
+    this.height = height;
+    this.queue = new ArrayBlockingQueue<byte[]>(queueFrames);
+  }
+
+  void start(List<String> command, File workingDir) throws IOException {
+    ProcessBuilder processBuilder = new ProcessBuilder(command);
+    processBuilder.directory(workingDir);
+    processBuilder.redirectErrorStream(true);
+    process = processBuilder.start();
+
+    // Drain ffmpeg's console output so it never blocks on a full pipe.
+    Thread logThread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+          String line;
+          while ((line = reader.readLine()) != null) {
+            System.out.println("ffmpeg: " + line);
+          }
+        } catch (IOException e) {
+          // Process exited.
+        }
+      }
+    }, "ffmpeg-log");
+    logThread.setDaemon(true);
+    logThread.start();
+
+    final OutputStream stdin = process.getOutputStream();
+    writerThread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          while (true) {
+            byte[] frame = queue.take();
+            if (frame == POISON) {
+              break;
+            }
+            stdin.write(frame);
+          }
+          stdin.close();
+        } catch (IOException e) {
+          writeError = e;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }, "ffmpeg-writer");
+    writerThread.start();
+  }
+
+  /**
+   * Queues a frame.  alpha scales the color channels towards black, blendPixels (may be null) is mixed in
+   * with weight blendAmount.
+   */
+  void submit(int[] pixels, float alpha, int[] blendPixels, float blendAmount) {
+    if (!isWriting()) {
+      return;
+    }
+    byte[] frame = new byte[width * height * 4];
+    for (int i = 0, b = 0; i < width * height; i++, b += 4) {
+      int c = pixels[i];
+      float r = (c >> 16) & 0xff;
+      float g = (c >> 8) & 0xff;
+      float bl = c & 0xff;
+      if (blendPixels != null) {
+        int d = blendPixels[i];
+        r = r * (1 - blendAmount) + ((d >> 16) & 0xff) * blendAmount;
+        g = g * (1 - blendAmount) + ((d >> 8) & 0xff) * blendAmount;
+        bl = bl * (1 - blendAmount) + (d & 0xff) * blendAmount;
+      }
+      frame[b] = (byte) Math.round(bl * alpha);
+      frame[b + 1] = (byte) Math.round(g * alpha);
+      frame[b + 2] = (byte) Math.round(r * alpha);
+      frame[b + 3] = (byte) 0xff;
+    }
+    if (!enqueue(frame)) {
+      println("ffmpeg is no longer running, dropping frames");
+    }
+  }
+
+  boolean isWriting() {
+    return writeError == null && writerThread.isAlive();
+  }
+
+  /**
+   * Waits for room in the queue for as long as the writer is still consuming it.
+   * @return False if the writer stopped, and the frame was dropped.
+   */
+  boolean enqueue(byte[] frame) {
+    try {
+      while (isWriting()) {
+        if (queue.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+          return true;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+
+  /**
+   * Flushes the queued frames, closes ffmpeg's stdin and waits for the encode to finish.
+   */
+  int finish() {
+    try {
+      enqueue(POISON);
+      writerThread.join();
+      int exitCode = process.waitFor();
+      if (writeError != null) {
+        println("Error writing to ffmpeg: " + writeError.getMessage());
+      }
+      if (exitCode != 0) {
+        println("Warning: ffmpeg exited with code " + exitCode);
+      }
+      return exitCode;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      process.destroy();
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+//
+// Publishes frames live to the GSTShmFeed pattern in Chromatik through a shared memory ring file.  This
+// mirrors the writer side of xyz.theforks.chromatikgst.FrameRing, see that class for the file layout.
+//
+// The default location matches the pattern's default Ring parameter.
+//
+String frameRingPath = System.getProperty("user.home") + File.separator + "Chromatik" + File.separator
+  + "ChromatikGST" + File.separator + "chromatikgst.ring";
+int frameRingSlots = 3;
+
+class FrameRingWriter {
+  final int MAGIC = 0x52534743;
+  final int VERSION = 1;
+  final int HEADER_BYTES = 64;
+  final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  FileChannel channel;
+  MappedByteBuffer buffer;
+  IntBuffer[] slotPixels;
+  int width;
+  int height;
+  int slots;
+  long writeSequence;
+
+  FrameRingWriter(String path, int width, int height, int slots) throws IOException {
+    this.width = width;
+    this.height = height;
+    this.slots = slots;
+    File file = new File(path);
+    file.getParentFile().mkdirs();
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    // Never shrink the file, Chromatik may still have it mapped.
+    long size = Math.max(channel.size(), HEADER_BYTES + (long) slots * slotBytes());
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    boolean sameGeometry = buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+      && buffer.getInt(8) == width && buffer.getInt(12) == height && buffer.getInt(16) == slots;
+    if (!sameGeometry) {
+      buffer.putInt(0, 0);
+      buffer.putInt(4, VERSION);
+      buffer.putInt(8, width);
+      buffer.putInt(12, height);
+      buffer.putInt(16, slots);
+      LONGS.setVolatile(buffer, 24, 0L);
+      for (int i = 0; i < slots; i++) {
+        LONGS.setVolatile(buffer, slotOffset(i), 0L);
+      }
+      buffer.putInt(0, MAGIC);
+    }
+    slotPixels = new IntBuffer[slots];
+    for (int i = 0; i < slots; i++) {
+      ByteBuffer slot = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      slot.position(slotOffset(i) + 8);
+      slot.limit(slotOffset(i) + 8 + width * height * 4);
+      slotPixels[i] = slot.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+    writeSequence = (long) LONGS.getAcquire(buffer, 24);
+  }
+
+  int slotBytes() {
+    return 8 + ((width * height * 4 + 7) & ~7);
+  }
+
+  int slotOffset(int slot) {
+    return HEADER_BYTES + slot * slotBytes();
+  }
+
+  void write(int[] pixels) {
+    long seq = ++writeSequence;
+    int slot = (int) (seq % slots);
+    int offset = slotOffset(slot);
+    LONGS.setVolatile(buffer, offset, 0L);
+    VarHandle.storeStoreFence();
+    slotPixels[slot].put(0, pixels, 0, width * height);
+    LONGS.setRelease(buffer, offset, seq);
+    LONGS.setRelease(buffer, 24, seq);
+    LONGS.setRelease(buffer, 32, System.currentTimeMillis());
+  }
+
+  void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      System.err.println("Error closing frame ring: " + e.getMessage());
+    }
+  }
+}
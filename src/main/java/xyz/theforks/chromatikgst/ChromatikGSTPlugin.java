@@ -0,0 +1,20 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXPlugin;
+
+/**
+ * Package plugin.  Starts loading GStreamer and exporting the bundled videos in the background as soon as
+ * the package is loaded so that they are finished, or at least out of the way, by the time a GST pattern
+ * is activated, and installs the quality governor.
+ */
+@LXPlugin.Name("ChromatikGST")
+public class ChromatikGSTPlugin implements LXPlugin {
+
+    @Override
+    public void initialize(LX lx) {
+        GSTBootstrap.startAsync(lx);
+        GSTUtil.exportDefaultVideosAsync(lx);
+        GSTGovernor.get(lx);
+    }
+}
@@ -1,6 +1,8 @@
 package xyz.theforks.chromatikgst;
 
 import org.freedesktop.gstreamer.Buffer;
+import org.freedesktop.gstreamer.Clock;
+import org.freedesktop.gstreamer.ClockTime;
 import org.freedesktop.gstreamer.FlowReturn;
 import org.freedesktop.gstreamer.Sample;
 import org.freedesktop.gstreamer.Structure;
@@ -10,20 +12,135 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.nio.ByteBuffer;
 
-public class ChromatikSink implements AppSink.NEW_SAMPLE {
+public class ChromatikSink implements AppSink.NEW_SAMPLE, AppSink.NEW_PREROLL {
 
     protected int frameCount = 0;
     protected BufferedImage lastFrame = null;
+    // System.nanoTime() when lastFrame arrived, guarded by frameLock.
+    protected long lastFrameNanos = 0;
+    // Incremented for every new lastFrame, guarded by frameLock.
+    protected long frameSequence = 0;
     final Object frameLock = new Object();
+    // When enabled, the difference between the pipeline running time and the buffer timestamp is
+    // recorded for each sample.  This is only meaningful for live sources.
+    protected boolean measureLatency = false;
+    protected volatile long pipelineLatencyNanos = -1;
+    // For flight recorder events.
+    protected volatile String pipelineName = "";
+    private int lastWidth = 0;
+    private int lastHeight = 0;
+    // Called with each preroll frame, i.e. the frame at the new position after a seek while paused.
+    protected volatile PrerollListener prerollListener = null;
+    // Smoothed time spent converting each sample on the streaming thread, read by GSTGovernor.
+    protected volatile long sampleCostNanos = 0;
+    // Presentation timestamp of the last frame, or -1, for resuming a rebuilt pipeline.
+    protected volatile long lastPts = -1;
+
+    public interface PrerollListener {
+        void onPreroll(BufferedImage image, long pts);
+    }
 
     @Override
     public FlowReturn newSample(AppSink elem) {
-        // Process frame if within range
+        processSample(elem, elem.pullSample());
+        return FlowReturn.OK;
+    }
+
+    /**
+     * Pulls the next sample from an appsink that doesn't emit signals, for offline rendering where the
+     * pattern steps the pipeline one frame at a time.  Blocks until the frame has been decoded.
+     * @return False at the end of the stream.
+     */
+    public boolean pull(AppSink elem) {
         Sample sample = elem.pullSample();
-        Buffer buffer = sample.getBuffer();
+        if (sample == null) {
+            return false;
+        }
+        processSample(elem, sample);
+        return true;
+    }
 
-        // Get frame data
-        ByteBuffer bb = buffer.map(false);
+    private void processSample(AppSink elem, Sample sample) {
+        GSTEvents.SampleEvent event = new GSTEvents.SampleEvent();
+        event.begin();
+        long start = System.nanoTime();
+        GSTMetrics.increment("sink.samplesOutstanding");
+        try {
+            Buffer buffer = sample.getBuffer();
+            if (measureLatency) {
+                long pts = buffer.getPresentationTimestamp();
+                Clock clock = elem.getClock();
+                if (pts != ClockTime.NONE && clock != null) {
+                    pipelineLatencyNanos = clock.getTime() - elem.getBaseTime() - pts;
+                }
+            }
+            BufferedImage image = toImage(sample);
+            // LX.log("Got frame: " + frameCount);
+            setFrame(image);
+            recordSample(event, image, buffer.getPresentationTimestamp(), false);
+            sampleCostNanos += (System.nanoTime() - start - sampleCostNanos) / 8;
+        } finally {
+            sample.dispose();
+            GSTMetrics.decrement("sink.samplesOutstanding");
+        }
+        GSTMetrics.increment("sink.samples");
+    }
+
+    /**
+     * The preroll sample is the first frame at a new position while the pipeline is paused, for example
+     * after the sync seek in GSTBase.onInactive().  Making it the current frame means the pattern shows
+     * the new position as soon as it becomes active again instead of waiting for playback to resume.
+     */
+    @Override
+    public FlowReturn newPreroll(AppSink elem) {
+        GSTEvents.SampleEvent event = new GSTEvents.SampleEvent();
+        event.begin();
+        Sample sample = elem.pullPreroll();
+        GSTMetrics.increment("sink.samplesOutstanding");
+        try {
+            BufferedImage image = toImage(sample);
+            setFrame(image);
+            recordSample(event, image, sample.getBuffer().getPresentationTimestamp(), true);
+            PrerollListener listener = prerollListener;
+            if (listener != null) {
+                listener.onPreroll(image, sample.getBuffer().getPresentationTimestamp());
+            }
+        } finally {
+            sample.dispose();
+            GSTMetrics.decrement("sink.samplesOutstanding");
+        }
+        GSTMetrics.increment("sink.prerolls");
+        return FlowReturn.OK;
+    }
+
+    /**
+     * Commits the sample event and reports a caps event when the frame size changed.  Only called from the
+     * streaming thread.
+     */
+    private void recordSample(GSTEvents.SampleEvent event, BufferedImage image, long pts, boolean preroll) {
+        if (pts != ClockTime.NONE) {
+            lastPts = pts;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width != lastWidth || height != lastHeight) {
+            lastWidth = width;
+            lastHeight = height;
+            GSTEvents.caps(pipelineName, width, height);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.pipeline = pipelineName;
+            event.width = width;
+            event.height = height;
+            event.pts = pts;
+            event.preroll = preroll;
+            event.commit();
+        }
+    }
+
+    static protected BufferedImage toImage(Sample sample) {
+        Buffer buffer = sample.getBuffer();
         Structure caps = sample.getCaps().getStructure(0);
         int width = caps.getInteger("width");
         int height = caps.getInteger("height");
@@ -31,16 +148,31 @@ public class ChromatikSink implements AppSink.NEW_SAMPLE {
         // Create image from frame data
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-        bb.asIntBuffer().get(pixels);
-        buffer.unmap();
-        // LX.log("Got frame: " + frameCount);
+
+        // Get frame data
+        ByteBuffer bb = buffer.map(false);
+        GSTMetrics.increment("sink.buffersMapped");
+        try {
+            bb.asIntBuffer().get(pixels);
+        } finally {
+            buffer.unmap();
+            GSTMetrics.decrement("sink.buffersMapped");
+        }
+        return image;
+    }
+
+    /**
+     * Makes image the current frame.  Also used for frames that arrive from outside of a GStreamer
+     * pipeline, such as a FrameRing.
+     * @param image An image that the caller will not modify while it is the current frame.
+     */
+    protected void setFrame(BufferedImage image) {
         synchronized (frameLock) {
             lastFrame = image;
+            lastFrameNanos = System.nanoTime();
+            frameSequence++;
         }
-        sample.dispose();
         frameCount++;
-
-        return FlowReturn.OK;
     }
 
 }
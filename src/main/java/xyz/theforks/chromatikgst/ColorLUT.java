@@ -0,0 +1,60 @@
+package xyz.theforks.chromatikgst;
+
+/**
+ * Per-channel 256 entry lookup tables that fold input range expansion, gamma, gain and white point into
+ * a single lookup per channel.  The tables hold values already shifted into place, so a sampled 0xRRGGBB
+ * pixel becomes an LX color with three lookups and two ORs:
+ *
+ * 0xff000000 | red[(c >> 16) & 0xff] | green[(c >> 8) & 0xff] | blue[c & 0xff]
+ */
+public class ColorLUT {
+
+    // Limited range video levels, used when expanding to full range.
+    static public final int LIMITED_BLACK = 16;
+    static public final int LIMITED_WHITE = 235;
+
+    public final int[] red = new int[256];
+    public final int[] green = new int[256];
+    public final int[] blue = new int[256];
+
+    public ColorLUT() {
+        build(1f, 1f, 1f, 1f, 1f, false);
+    }
+
+    /**
+     * @param gamma Output = input ^ gamma, so values above 1 darken the midtones as LEDs usually need.
+     * @param gain Overall brightness multiplier.
+     * @param whiteR Red gain for the white point.
+     * @param whiteG Green gain for the white point.
+     * @param whiteB Blue gain for the white point.
+     * @param expandRange Stretch limited range 16-235 input to the full 0-255 range first.
+     */
+    public void build(float gamma, float gain, float whiteR, float whiteG, float whiteB, boolean expandRange) {
+        fill(red, 16, gamma, gain * whiteR, expandRange);
+        fill(green, 8, gamma, gain * whiteG, expandRange);
+        fill(blue, 0, gamma, gain * whiteB, expandRange);
+    }
+
+    static private void fill(int[] table, int shift, float gamma, float gain, boolean expandRange) {
+        for (int i = 0; i < 256; i++) {
+            float v = i / 255f;
+            if (expandRange) {
+                v = (i - LIMITED_BLACK) / (float) (LIMITED_WHITE - LIMITED_BLACK);
+                v = Math.max(0f, Math.min(1f, v));
+            }
+            if (gamma != 1f) {
+                v = (float) Math.pow(v, gamma);
+            }
+            int out = Math.round(v * gain * 255f);
+            table[i] = Math.max(0, Math.min(255, out)) << shift;
+        }
+    }
+
+    /**
+     * @param rgb A 0xRRGGBB pixel, any alpha bits are ignored.
+     * @return The corrected, opaque LX color.
+     */
+    public int apply(int rgb) {
+        return 0xff000000 | red[(rgb >> 16) & 0xff] | green[(rgb >> 8) & 0xff] | blue[rgb & 0xff];
+    }
+}
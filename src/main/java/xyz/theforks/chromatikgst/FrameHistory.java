@@ -0,0 +1,159 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap ring of the last N int arrays of one length, either decoded frames at the decode resolution or
+ * sampled per-LED colors, for time based looks such as trails, echo and slit-scan.  Reads index by age,
+ * 0 being the newest entry, and an offset into the entry, with no allocation.
+ *
+ * The memory for all histories together is bounded by -Dchromatikgst.historyMB (default 512).  allocate()
+ * shortens a history that would go over the budget and release() returns its share.  Not thread safe, push
+ * and read from the engine thread.
+ */
+public class FrameHistory {
+
+    static public final long BUDGET_BYTES = Long.getLong("chromatikgst.historyMB", 512) << 20;
+    static private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private final IntBuffer ring;
+    private final long[] nanos;
+    private final int capacity;
+    private final int length;
+    private final long bytes;
+    // Slot of the newest entry and the number of valid entries.
+    private int head = -1;
+    private int size = 0;
+    private boolean released = false;
+
+    private FrameHistory(int capacity, int length) {
+        this.capacity = capacity;
+        this.length = length;
+        this.bytes = (long) capacity * length * 4;
+        this.ring = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+        this.nanos = new long[capacity];
+    }
+
+    /**
+     * @param capacity Number of entries to keep.
+     * @param length Ints per entry, width * height for frames or the number of points for LED colors.
+     * @return The history, with fewer entries than asked for if the budget is short, or null if not even
+     * two entries fit.
+     */
+    static public FrameHistory allocate(String name, int capacity, int length) {
+        long entryBytes = (long) length * 4;
+        // A single direct buffer is limited to 2GB.
+        int fits = (int) Math.min(capacity, Integer.MAX_VALUE / entryBytes);
+        while (true) {
+            long allocated = allocatedBytes.get();
+            int available = (int) Math.min(fits, Math.max(0, BUDGET_BYTES - allocated) / entryBytes);
+            if (available < 2) {
+                LX.error("No frame history memory left for " + name + ", " + (allocated >> 20) + "MB of "
+                        + (BUDGET_BYTES >> 20) + "MB in use, see -Dchromatikgst.historyMB");
+                return null;
+            }
+            if (allocatedBytes.compareAndSet(allocated, allocated + available * entryBytes)) {
+                if (available < capacity) {
+                    LX.error("Frame history for " + name + " shortened from " + capacity + " to " + available
+                            + " entries, see -Dchromatikgst.historyMB");
+                }
+                GSTMetrics.set("history.bytes", allocated + available * entryBytes);
+                return new FrameHistory(available, length);
+            }
+        }
+    }
+
+    /**
+     * Returns this history's memory to the budget.  The direct buffer itself is freed by the garbage
+     * collector once the history is unreachable.
+     */
+    public void release() {
+        if (!released) {
+            released = true;
+            GSTMetrics.set("history.bytes", allocatedBytes.addAndGet(-bytes));
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return Number of entries pushed so far, up to the capacity.
+     */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = -1;
+        size = 0;
+    }
+
+    /**
+     * Copies the first getLength() ints of data in as the newest entry, replacing the oldest when full.
+     */
+    public void push(int[] data, long timeNanos) {
+        head = (head + 1) % capacity;
+        ring.put(head * length, data, 0, length);
+        nanos[head] = timeNanos;
+        if (size < capacity) {
+            size++;
+        }
+    }
+
+    private int slot(int age) {
+        if (age >= size) {
+            age = size - 1;
+        }
+        int slot = head - age;
+        return (slot < 0) ? slot + capacity : slot;
+    }
+
+    /**
+     * @param age Entries back from the newest, clamped to the oldest entry.
+     * @param offset Index into the entry, a pixel offset for frames or a point index for LED colors.
+     */
+    public int get(int age, int offset) {
+        return ring.get(slot(age) * length + offset);
+    }
+
+    /**
+     * Copies a whole entry into dst.
+     */
+    public void get(int age, int[] dst) {
+        ring.get(slot(age) * length, dst, 0, length);
+    }
+
+    /**
+     * @return System.nanoTime() passed to push() for the entry.
+     */
+    public long getNanos(int age) {
+        return nanos[slot(age)];
+    }
+
+    /**
+     * @return Age of the newest entry at least nanosAgo older than the newest, or the oldest entry.
+     */
+    public int getAge(long nanosAgo) {
+        if (size == 0) {
+            return 0;
+        }
+        long target = nanos[head] - nanosAgo;
+        for (int age = 0; age < size; age++) {
+            if (nanos[slot(age)] <= target) {
+                return age;
+            }
+        }
+        return size - 1;
+    }
+}
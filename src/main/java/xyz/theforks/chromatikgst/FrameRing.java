@@ -0,0 +1,238 @@
+package xyz.theforks.chromatikgst;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single producer ring of video frames in a memory mapped file.  This passes frames between processes
+ * through shared memory with no encoding, decoding or socket copies.  The writer is typically the
+ * Processing sketch or another external renderer and the reader is a GST pattern.  This class has no LX
+ * dependencies so that it can be used from standalone processes.
+ *
+ * File layout, little endian:
+ *   0   int   magic "CGSR"
+ *   4   int   version
+ *   8   int   width
+ *   12  int   height
+ *   16  int   number of slots
+ *   24  long  sequence number of the newest complete frame, 0 if none
+ *   32  long  writer heartbeat, System.currentTimeMillis()
+ *   64  slots, each a long slot sequence number followed by width * height 0xAARRGGBB pixels.
+ *
+ * Each slot is a seqlock.  The writer zeroes the slot sequence, writes the pixels and then publishes the
+ * slot sequence followed by the header sequence.  A reader that sees the slot sequence change while
+ * copying discards the frame.
+ */
+public class FrameRing implements Closeable {
+
+    static public final int MAGIC = 0x52534743;
+    static public final int VERSION = 1;
+    static public final int HEADER_BYTES = 64;
+    static private final int SEQUENCE_OFFSET = 24;
+    static private final int HEARTBEAT_OFFSET = 32;
+
+    static private final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int width;
+    private final int height;
+    private final int slots;
+    private final IntBuffer[] slotPixels;
+    private long writeSequence;
+
+    static public int slotBytes(int width, int height) {
+        // Keep every slot sequence 8 byte aligned.
+        return 8 + ((width * height * 4 + 7) & ~7);
+    }
+
+    private FrameRing(File file, FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a frame ring file: " + file);
+        }
+        width = buffer.getInt(8);
+        height = buffer.getInt(12);
+        slots = buffer.getInt(16);
+        if (width <= 0 || height <= 0 || slots <= 0
+                || HEADER_BYTES + (long) slots * slotBytes(width, height) > buffer.capacity()) {
+            throw new IOException("Invalid frame ring header: " + file);
+        }
+        slotPixels = new IntBuffer[slots];
+        for (int i = 0; i < slots; i++) {
+            ByteBuffer slot = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            slot.position(slotOffset(i) + 8);
+            slot.limit(slotOffset(i) + 8 + width * height * 4);
+            slotPixels[i] = slot.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+        writeSequence = getSequence();
+    }
+
+    /**
+     * Creates or reuses a ring file for writing.  An existing file is never shrunk because readers may
+     * still have it mapped.
+     */
+    static public FrameRing create(File file, int width, int height, int slots) throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), HEADER_BYTES + (long) slots * slotBytes(width, height));
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        boolean sameGeometry = buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                && buffer.getInt(8) == width && buffer.getInt(12) == height && buffer.getInt(16) == slots;
+        if (!sameGeometry) {
+            // Invalidate first so readers of the old geometry reopen rather than read garbage.
+            buffer.putInt(0, 0);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, width);
+            buffer.putInt(12, height);
+            buffer.putInt(16, slots);
+            LONGS.setVolatile(buffer, SEQUENCE_OFFSET, 0L);
+            for (int i = 0; i < slots; i++) {
+                LONGS.setVolatile(buffer, HEADER_BYTES + i * slotBytes(width, height), 0L);
+            }
+            buffer.putInt(0, MAGIC);
+        }
+        return new FrameRing(file, channel, buffer);
+    }
+
+    /**
+     * Opens an existing ring file for reading.
+     */
+    static public FrameRing open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        try {
+            return new FrameRing(file, channel, buffer);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private int slotOffset(int slot) {
+        return HEADER_BYTES + slot * slotBytes(width, height);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    /**
+     * @return Sequence number of the newest complete frame, 0 if nothing has been written.
+     */
+    public long getSequence() {
+        return (long) LONGS.getAcquire(buffer, SEQUENCE_OFFSET);
+    }
+
+    public long getHeartbeatMillis() {
+        return (long) LONGS.getAcquire(buffer, HEARTBEAT_OFFSET);
+    }
+
+    /**
+     * @return False if the writer has since recreated the file with a different geometry.
+     */
+    public boolean isCompatible() {
+        return buffer.getInt(0) == MAGIC && buffer.getInt(8) == width && buffer.getInt(12) == height
+                && buffer.getInt(16) == slots;
+    }
+
+    public void heartbeat() {
+        LONGS.setRelease(buffer, HEARTBEAT_OFFSET, System.currentTimeMillis());
+    }
+
+    /**
+     * Publishes a frame.  Only one process may write to a ring.
+     * @param pixels width * height 0xAARRGGBB or 0x00RRGGBB pixels.
+     * @return The sequence number of the published frame.
+     */
+    public long write(int[] pixels) {
+        long seq = ++writeSequence;
+        int slot = (int) (seq % slots);
+        int offset = slotOffset(slot);
+        LONGS.setVolatile(buffer, offset, 0L);
+        VarHandle.storeStoreFence();
+        slotPixels[slot].put(0, pixels, 0, width * height);
+        LONGS.setRelease(buffer, offset, seq);
+        LONGS.setRelease(buffer, SEQUENCE_OFFSET, seq);
+        heartbeat();
+        return seq;
+    }
+
+    /**
+     * Publishes a frame straight from another buffer, such as a mapped GStreamer buffer, without an
+     * intermediate array.
+     * @param pixels At least width * height pixels starting at its position.
+     */
+    public long write(IntBuffer pixels) {
+        long seq = ++writeSequence;
+        int slot = (int) (seq % slots);
+        int offset = slotOffset(slot);
+        LONGS.setVolatile(buffer, offset, 0L);
+        VarHandle.storeStoreFence();
+        slotPixels[slot].put(0, pixels, pixels.position(), width * height);
+        LONGS.setRelease(buffer, offset, seq);
+        LONGS.setRelease(buffer, SEQUENCE_OFFSET, seq);
+        heartbeat();
+        return seq;
+    }
+
+    /**
+     * Copies the newest frame if it is newer than afterSequence.
+     * @param afterSequence Sequence number of the last frame the caller consumed.
+     * @param pixels Destination for width * height pixels.
+     * @return The sequence number copied, or -1 if there is no newer frame or it was overwritten while
+     * being copied.
+     */
+    public long read(long afterSequence, int[] pixels) {
+        long seq = getSequence();
+        if (seq == 0 || seq == afterSequence) {
+            return -1;
+        }
+        int slot = (int) (seq % slots);
+        int offset = slotOffset(slot);
+        if ((long) LONGS.getAcquire(buffer, offset) != seq) {
+            return -1;
+        }
+        slotPixels[slot].get(0, pixels, 0, width * height);
+        VarHandle.loadLoadFence();
+        if ((long) LONGS.getVolatile(buffer, offset) != seq) {
+            return -1;
+        }
+        return seq;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,155 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import org.freedesktop.gstreamer.*;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Analyzes a pipeline's decoded audio with the level and spectrum elements instead of playing it.  The
+ * audio sink bin is audioconvert ! audioresample ! level ! spectrum ! fakesink sync=true, so audio is
+ * consumed in step with the pipeline clock without needing an audio device.  The audio is resampled to
+ * SAMPLE_RATE so that the spectrum bands always cover the same frequencies.
+ *
+ * Readings are posted as element messages at a low rate and carry the running time of the audio they
+ * describe.  They are held until the pipeline clock reaches that running time, so the values line up with
+ * the video frames being displayed rather than with the decoder, which runs ahead.
+ */
+public class GSTAudioAnalyzer {
+
+    static public final int BANDS = 64;
+    static public final int SAMPLE_RATE = 44100;
+    static public final long INTERVAL_NANOS = 50_000_000L;
+    // Spectrum magnitudes below this are clamped to it, in dB.
+    static public final int THRESHOLD_DB = -80;
+    static public final double LEVEL_FLOOR_DB = -60;
+    // Upper edges of the bass and mid bands in Hz.
+    static public final double BASS_HZ = 250;
+    static public final double MID_HZ = 4000;
+
+    static class Reading {
+        long runningTime;
+        float level;
+        float bass;
+        float mid;
+        float treble;
+        float onset;
+    }
+
+    private final ConcurrentLinkedQueue<Reading> pending = new ConcurrentLinkedQueue<>();
+    // Last level reading, combined with the next spectrum reading.  Only touched on the bus thread.
+    private float lastLevel = 0;
+    private float[] lastMagnitudes = null;
+    private float fluxAverage = 0;
+    private boolean parseErrorLogged = false;
+
+    public float level = 0;
+    public float bass = 0;
+    public float mid = 0;
+    public float treble = 0;
+    public float onset = 0;
+
+    public Bin createAudioSink() {
+        return Gst.parseBinFromDescription(
+                "audioconvert ! audioresample ! audio/x-raw,rate=" + SAMPLE_RATE + " ! "
+                        + "level name=analysis-level post-messages=true interval=" + INTERVAL_NANOS + " ! "
+                        + "spectrum name=analysis-spectrum post-messages=true message-magnitude=true"
+                        + " bands=" + BANDS + " threshold=" + THRESHOLD_DB + " interval=" + INTERVAL_NANOS + " ! "
+                        + "fakesink sync=true",
+                true);
+    }
+
+    static private long runningTime(Structure structure) {
+        Object value = structure.getValue("running-time");
+        return (value instanceof Number) ? ((Number) value).longValue() : -1;
+    }
+
+    static private float normalize(double db, double floorDb) {
+        return (float) Math.max(0, Math.min(1, (db - floorDb) / -floorDb));
+    }
+
+    /**
+     * Called from the bus thread for every message.  Ignores anything that isn't ours.
+     */
+    public void handleMessage(Message message) {
+        Structure structure = message.getStructure();
+        if (structure == null) {
+            return;
+        }
+        try {
+            if (structure.getName().equals("level")) {
+                List<Double> rms = structure.getValues(Double.class, "rms");
+                double sum = 0;
+                for (Double db : rms) {
+                    sum += db;
+                }
+                lastLevel = rms.isEmpty() ? 0 : normalize(sum / rms.size(), LEVEL_FLOOR_DB);
+            } else if (structure.getName().equals("spectrum")) {
+                List<Float> magnitudes = structure.getValues(Float.class, "magnitude");
+                pending.add(analyzeSpectrum(runningTime(structure), magnitudes));
+            }
+        } catch (Exception e) {
+            if (!parseErrorLogged) {
+                LX.log("Unable to parse audio analysis message: " + e.getMessage());
+                parseErrorLogged = true;
+            }
+        }
+    }
+
+    private Reading analyzeSpectrum(long runningTime, List<Float> magnitudes) {
+        Reading reading = new Reading();
+        reading.runningTime = runningTime;
+        reading.level = lastLevel;
+
+        // The spectrum bands split 0 to nyquist evenly, the sink bin fixes the rate.
+        double bandHz = SAMPLE_RATE / 2.0 / BANDS;
+        int bassBands = Math.max(1, (int) Math.round(BASS_HZ / bandHz));
+        int midBands = Math.max(bassBands + 1, (int) Math.round(MID_HZ / bandHz));
+        float[] current = new float[magnitudes.size()];
+        double bass = 0, mid = 0, treble = 0, flux = 0;
+        for (int i = 0; i < current.length; i++) {
+            current[i] = normalize(magnitudes.get(i), THRESHOLD_DB);
+            if (i < bassBands) bass += current[i];
+            else if (i < midBands) mid += current[i];
+            else treble += current[i];
+            if (lastMagnitudes != null && i < lastMagnitudes.length) {
+                flux += Math.max(0, current[i] - lastMagnitudes[i]);
+            }
+        }
+        lastMagnitudes = current;
+        reading.bass = (float) (bass / bassBands);
+        reading.mid = (float) (mid / Math.max(1, midBands - bassBands));
+        reading.treble = (float) (treble / Math.max(1, current.length - midBands));
+
+        // Onset strength is the spectral flux relative to its recent average.
+        fluxAverage += 0.05f * (flux - fluxAverage);
+        reading.onset = fluxAverage > 0 ? (float) Math.min(1, flux / (2 * fluxAverage)) : 0;
+        return reading;
+    }
+
+    /**
+     * Called from the engine thread.  Applies every reading whose audio has reached the pipeline clock.
+     */
+    public void update(Pipeline pipeline) {
+        Clock clock = pipeline.getClock();
+        long now = (clock == null) ? Long.MAX_VALUE : clock.getTime() - pipeline.getBaseTime();
+        Reading reading;
+        while ((reading = pending.peek()) != null && reading.runningTime <= now) {
+            pending.poll();
+            level = reading.level;
+            bass = reading.bass;
+            mid = reading.mid;
+            treble = reading.treble;
+            onset = reading.onset;
+        }
+    }
+
+    /**
+     * Drops readings that will never be reached, i.e. after a flushing seek.
+     */
+    public void reset() {
+        pending.clear();
+        lastMagnitudes = null;
+    }
+}
@@ -3,35 +3,144 @@ package xyz.theforks.chromatikgst;
 import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
 import heronarts.lx.LXComponentName;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.EnumParameter;
+import heronarts.lx.parameter.LXParameter;
 import org.freedesktop.gstreamer.*;
 import org.freedesktop.gstreamer.elements.AppSink;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Creates a pipeline that uses the autovideosrc element to capture video from the default camera.
+ *
+ * With Capture on Smallest, the camera's modes are probed before the pipeline is built and the cheapest
+ * one that still covers the decode size and MinFPS is requested, see GSTCaptureMode, instead of whatever
+ * the camera negotiates by default, which is often 1080p.
  */
 @LXCategory("Custom")
 @LXComponentName("GSTAutoVideo")
 public class GSTAutoVideo extends GSTBase {
+
+    public enum CaptureSelect {
+        SMALLEST("Smallest"),
+        NATIVE("Native");
+
+        private final String label;
+
+        CaptureSelect(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public final EnumParameter<CaptureSelect> captureSelect =
+            new EnumParameter<CaptureSelect>("Capture", CaptureSelect.SMALLEST)
+                    .setDescription("Smallest asks the camera for the cheapest mode that covers Width, Height and MinFPS, Native takes the camera's default");
+
+    public final DiscreteParameter minFps =
+            new DiscreteParameter("MinFPS", 30, 1, 121)
+                    .setDescription("Lowest camera frame rate Smallest will pick");
+
+    // Time allowed for the source to open the device when probing.
+    static private final long PROBE_TIMEOUT_MS = 3000;
+
+    protected volatile GSTCaptureMode captureMode;
+
     public GSTAutoVideo(LX lx) {
         super(lx);
+        addParameter("captureSelect", captureSelect);
+        addParameter("minFps", minFps);
+    }
+
+    protected String getCaptureSource() {
+        return "autovideosrc";
     }
 
     @Override
     protected Pipeline initializePipeline() {
+        String source = getCaptureSource();
+        captureMode = null;
+        if (captureSelect.getEnum() == CaptureSelect.SMALLEST) {
+            captureMode = GSTCaptureMode.choose(probeCaptureModes(source),
+                    widthKnob.getValuei(), heightKnob.getValuei(), minFps.getValuei());
+        }
+        String info = (captureMode != null) ? captureMode.toString() : "native";
+        if (GSTUtil.VERBOSE) LX.log(getPipelineName() + " capture mode: " + info);
+        if (captureMode != null) {
+            // decodebin passes raw video straight through and plugs a decoder for compressed modes.
+            source += " ! capsfilter name=modecaps caps=\"" + captureMode.toCaps() + "\""
+                    + (captureMode.isCompressed() ? " ! decodebin" : "");
+        }
         Bin bin = Gst.parseBinFromDescription(
-                "autovideosrc ! "
+                source + " ! "
                         + "videoscale ! videoconvert ! "
-                        + "capsfilter caps=video/x-raw,width="+widthKnob.getValuei()+",height="+heightKnob.getValuei(),
+                        + "capsfilter name=scalecaps caps=video/x-raw,width="+getDecodeWidth()+",height="+getDecodeHeight(),
                 true);
-        capsFilter = bin.getElementByName("capsfilter0");
+        capsFilter = bin.getElementByName("scalecaps");
         Pipeline pipeline = new Pipeline(getPipelineName());
         AppSink videoSink = createVideoSink();
         pipeline.add(bin);
-        pipeline.add(videoSink);
-        bin.link(videoSink);
+        Bin outputBin = createOutputBin(videoSink);
+        pipeline.add(outputBin);
+        bin.link(outputBin);
         return pipeline;
     }
 
+    /**
+     * Opens the source in a throwaway pipeline just far enough, READY, to ask its src pad what it can
+     * produce.
+     * @param sourceDescription A source element, or a bin description ending in one source pad.
+     * @return The modes it advertises, empty if it couldn't be opened.
+     */
+    static protected List<GSTCaptureMode> probeCaptureModes(String sourceDescription) {
+        Pipeline probe = null;
+        try {
+            Bin bin = Gst.parseBinFromDescription(sourceDescription, true);
+            probe = new Pipeline("capture-probe");
+            probe.add(bin);
+            probe.setState(State.READY);
+            probe.getState(TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT_MS));
+            Caps caps = bin.getStaticPad("src").queryCaps(null);
+            GSTMetrics.increment("capture.probes");
+            return GSTCaptureMode.parse(caps.toString());
+        } catch (Exception e) {
+            LX.error(e, "Could not probe capture modes of " + sourceDescription);
+            return new ArrayList<>();
+        } finally {
+            if (probe != null) {
+                probe.setState(State.NULL);
+                probe.dispose();
+            }
+        }
+    }
+
+    @Override
+    public void onParameterChanged(LXParameter p) {
+        super.onParameterChanged(p);
+        if (pipeline == null || worker != null) {
+            return;
+        }
+        if (p == captureSelect || p == minFps) {
+            restartPipeline();
+        } else if ((p == widthKnob || p == heightKnob) && captureMode != null
+                && !captureMode.covers(widthKnob.getValuei(), heightKnob.getValuei(), minFps.getValuei())) {
+            // Grew past the mode in use, pick a bigger one.
+            restartPipeline();
+        }
+    }
+
+    @Override
+    protected String getWorkerSource() {
+        return "autovideosrc";
+    }
+
     @Override
     protected String getPipelineName() {
         return "GSTAutoVideo";
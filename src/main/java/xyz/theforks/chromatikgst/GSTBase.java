@@ -2,13 +2,13 @@ package xyz.theforks.chromatikgst;
 
 import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
-import heronarts.lx.color.LXColor;
 import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.BoundedParameter;
 import heronarts.lx.parameter.CompoundParameter;
 import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.EnumParameter;
 import heronarts.lx.parameter.LXParameter;
 import heronarts.lx.pattern.LXPattern;
-import heronarts.lx.model.LXPoint;
 import org.freedesktop.gstreamer.*;
 import org.freedesktop.gstreamer.elements.AppSink;
 import org.freedesktop.gstreamer.event.SeekFlags;
@@ -18,8 +18,11 @@ import org.freedesktop.gstreamer.message.MessageType;
 import org.freedesktop.gstreamer.Version;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -37,40 +40,31 @@ import java.util.List;
 abstract public class GSTBase extends LXPattern {
 
     static {
-        appendJnaPath();
-    }
-
-    static void appendJnaPath() {
-        // NOTE(tracy): This requires the GStreamer framework to be installed on the system in the standard
-        // location on Mac.  For Windows, GStreamer being in the path was good enough.  Since this needs to
-        // be bound before we attempt any JNA code it is currently in a static
-        // initializer for our Pattern classes.  It would be good to make this more configurable as a property
-        // in the ~/Chromatik/ChromatikGST directory perhaps.
-        String osName = System.getProperty("os.name");
-        if (osName.startsWith("Mac")) {
-            String[] directories = {
-              "/Volumes/Macintosh HD/System/Volumes/Data/Library/Frameworks/GStreamer.framework/Versions/1.0/lib"
-            };
-            String currentPath = System.getProperty("jna.library.path");
-            if (currentPath == null) currentPath = "";
-            StringBuilder newPath = new StringBuilder(currentPath);
-            for (String dir : directories) {
-                if (newPath.length() > 0) {
-                    newPath.append(":");
-                }
-                newPath.append(dir);
-            }
-            System.setProperty("jna.library.path", newPath.toString());
-        }
+        // Normally already done by GSTBootstrap with the configured path when the package loaded.  It has
+        // to happen before any JNA code runs, so this covers the plugin being disabled.
+        GSTBootstrap.configureLibraryPath(null);
     }
 
     protected Pipeline pipeline;
     protected ChromatikSink chromatikSink  = new ChromatikSink();
     public boolean gstInitialized = false;
     protected List<UVPoint> uvPoints = null;
+    protected long uvKey;
     protected Thread gstThread;
     protected boolean uvsNeedUpdate;
     protected Element capsFilter;
+    // Frames published by another process through shared memory.  When set, frames are read from the
+    // ring instead of arriving through the pipeline's appsink.
+    protected FrameRing frameRing;
+    protected long frameRingSequence = 0;
+    // pollFrameRing alternates between these, so the previous frame stays intact for partial renders.
+    private final BufferedImage[] ringImages = new BufferedImage[2];
+    private int ringImage = 0;
+    // Rebuilds the in-process pipeline after bus errors, see onPipelineError().
+    protected GSTRecovery recovery;
+    // Supervised child process running the pipeline when Isolate is on.  Its frames arrive through
+    // frameRing.
+    protected GSTWorkerProcess worker;
 
     public final DiscreteParameter widthKnob =
             new DiscreteParameter("Width", 160, 1, 1920)
@@ -107,8 +101,143 @@ abstract public class GSTBase extends LXPattern {
     BooleanParameter flipHorizontal = new BooleanParameter("FlipX", false);
     BooleanParameter flipVertical = new BooleanParameter("FlipY", false);
 
+    public final CompoundParameter gamma =
+            new CompoundParameter("Gamma", 1, 0.2, 4)
+                    .setDescription("LED gamma correction applied while sampling, 1 is no correction");
+    public final CompoundParameter gain =
+            new CompoundParameter("Gain", 1, 0, 2)
+                    .setDescription("Brightness gain applied while sampling");
+    public final CompoundParameter whiteRed =
+            new CompoundParameter("WhiteR", 1, 0, 1)
+                    .setDescription("Red level of the LED white point");
+    public final CompoundParameter whiteGreen =
+            new CompoundParameter("WhiteG", 1, 0, 1)
+                    .setDescription("Green level of the LED white point");
+    public final CompoundParameter whiteBlue =
+            new CompoundParameter("WhiteB", 1, 0, 1)
+                    .setDescription("Blue level of the LED white point");
+    public final BooleanParameter expandRange =
+            new BooleanParameter("Expand", false)
+                    .setDescription("Expand limited range 16-235 video to full range");
+
+    // Color correction folded into the sampling loop.  Rebuilt when any of the values above change,
+    // including through modulation.
+    protected final ColorLUT colorLUT = new ColorLUT();
+    private final float[] colorLUTValues = { 1, 1, 1, 1, 1, 0 };
+    // Scalar or Vector API inner loop, see SampleKernel.get().
+    private final SampleKernel sampleKernel = SampleKernel.get();
+
+    // Sampling state for incremental rendering.  The plan is recompiled when the frame size, the uv
+    // parameters or the uv points change.  sampledColors holds the last sampled output so that frames
+    // without changes are a copy instead of a re-sample.
+    protected SamplingPlan samplingPlan;
+    private final float[] samplingParams = new float[9];
+    // Filled by getSamplingParams() each frame and compared against samplingParams.
+    private final float[] currentSamplingParams = new float[9];
+    private int uvVersion = 0;
+    private int planUVVersion = -1;
+    private int[] sampledColors;
+    private BufferedImage sampledFrame;
+    private long sampledSequence = -1;
+    // How the last renderWithUV went, for flight recorder events.
+    protected String renderMode = "none";
+
+    public final BooleanParameter record =
+            new BooleanParameter("Record", false)
+                    .setDescription("Record this pattern's LED output to a video in ChromatikGST/Recordings");
+
+    static public final int RECORD_FPS = 30;
+    protected GSTRecorder recorder;
+
+    public final BooleanParameter analyze =
+            new BooleanParameter("Analyze", false)
+                    .setDescription("Compute motion, brightness and hue from a tiny copy of the video");
+
+    public final BoundedParameter motion =
+            new BoundedParameter("Motion", 0, 0, 1)
+                    .setDescription("Amount of frame to frame motion, usable as a modulation source");
+    public final BoundedParameter motionX =
+            new BoundedParameter("MotionX", 0.5, 0, 1)
+                    .setDescription("Horizontal centroid of motion, usable as a modulation source");
+    public final BoundedParameter motionY =
+            new BoundedParameter("MotionY", 0.5, 0, 1)
+                    .setDescription("Vertical centroid of motion, usable as a modulation source");
+    public final BoundedParameter brightness =
+            new BoundedParameter("Bright", 0, 0, 1)
+                    .setDescription("Average brightness of the video, usable as a modulation source");
+    public final BoundedParameter hue =
+            new BoundedParameter("Hue", 0, 0, 1)
+                    .setDescription("Dominant hue of the video, usable as a modulation source");
+
+    protected final GSTVideoAnalyzer videoAnalyzer = new GSTVideoAnalyzer();
+    protected Element analysisValve;
+
+    // Quality reductions applied by GSTGovernor under engine load.
+    static public final int GOVERNOR_MAX_RATE = 15;
+    protected int qualityLevel = 0;
+    protected Element rateLimiter;
+    protected long runCostNanos = 0;
+    protected volatile long lastRunNanos = 0;
+    private long governorFrame = 0;
+
+    // Offline rendering, see startOffline().
+    protected boolean offline = false;
+    protected AppSink offlineSink;
+    protected boolean offlineEnded = false;
+
+    public final BooleanParameter isolate =
+            new BooleanParameter("Isolate", false)
+                    .setDescription("Decode in a separate, supervised process so a GStreamer crash or hang only restarts this pattern's video");
+
+    // Time displacement, each point shows its color from a past video frame.
+    public enum TimeMode {
+        ECHO("Echo"),
+        SLIT_U("Slit U"),
+        SLIT_V("Slit V");
+
+        private final String label;
+
+        TimeMode(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public final DiscreteParameter history =
+            new DiscreteParameter("History", 0, 0, 601)
+                    .setDescription("Number of past video frames of LED colors to keep for TimeDisp, 0 disables");
+    public final CompoundParameter timeDisplace =
+            new CompoundParameter("TimeDisp", 0, 0, 1)
+                    .setDescription("How far back in the history points show, 0 is the current frame");
+    public final EnumParameter<TimeMode> timeMode =
+            new EnumParameter<TimeMode>("TimeMode", TimeMode.ECHO)
+                    .setDescription("Echo delays every point equally, Slit U and Slit V delay points in proportion to their u or v");
+
+    // Off-heap histories of sampled LED colors, for the parameters above, and of decoded frames, for
+    // subclasses that call setFrameHistory().  Pushed once per new video frame from renderWithUV.
+    protected FrameHistory ledHistory;
+    protected FrameHistory frameHistory;
+    private int frameHistoryLength = 0;
+    private long historySequence = -1;
+    // Per point delay weight for the slit modes, indexed like colors.
+    private float[] pointDelay;
+    private int pointDelayVersion = -1;
+    private TimeMode pointDelayMode;
+    // History value ledHistory was allocated for, it can have fewer entries when the memory budget is short.
+    private int ledHistoryFrames = 0;
+
     public GSTBase(LX lx) {
         super(lx);
+        // Normally already started by ChromatikGSTPlugin, this covers the plugin being disabled.
+        GSTUtil.exportDefaultVideosAsync(lx);
+        GSTBootstrap.startAsync(lx);
+        GSTGovernor.get(lx).register(this);
+        chromatikSink.pipelineName = getPipelineName();
+        recovery = new GSTRecovery(getPipelineName());
         model.addListener((p) -> {
             computeUVs();
         });
@@ -123,11 +252,37 @@ abstract public class GSTBase extends LXPattern {
         addParameter("rotate", rotate);
         addParameter("tileX", tileX);
         addParameter("tileY", tileY);
+        addParameter("gamma", gamma);
+        addParameter("gain", gain);
+        addParameter("whiteR", whiteRed);
+        addParameter("whiteG", whiteGreen);
+        addParameter("whiteB", whiteBlue);
+        addParameter("expandRange", expandRange);
+        addParameter("record", record);
+        addParameter("analyze", analyze);
+        addParameter("motion", motion);
+        addParameter("motionX", motionX);
+        addParameter("motionY", motionY);
+        addParameter("brightness", brightness);
+        addParameter("hue", hue);
+        addParameter("isolate", isolate);
+        addParameter("history", history);
+        addParameter("timeDisplace", timeDisplace);
+        addParameter("timeMode", timeMode);
     }
 
     abstract protected Pipeline initializePipeline();
     abstract protected String getPipelineName();
 
+    /**
+     * Initializes GStreamer for components that use it outside of a pattern's pipeline thread.
+     */
+    static synchronized void ensureGstInitialized(String progname) {
+        if (!Gst.isInitialized()) {
+            Gst.init(Version.BASELINE, progname);
+        }
+    }
+
     protected void initGSTWithThread(LX lx) {
         gstThread = new Thread(() -> {
             initializeGST(lx);
@@ -151,26 +306,241 @@ abstract public class GSTBase extends LXPattern {
             if (GSTUtil.VERBOSE) LX.log("GStreamer init result: " + result);
         }
         pipeline = initializePipeline();
+        GSTMetrics.increment(getPipelineName() + ".pipelines");
         configurePipelineBus();
-        if (GSTUtil.VERBOSE) LX.log("Starting GStreamer main loop : " + getPipelineName());
-        Gst.main();
-        if (GSTUtil.VERBOSE) LX.log("GStreamer main loop exited : " + getPipelineName());
+        long resume = recovery.takeResumePosition();
+        if (resume > 0 && isResumable()) {
+            EnumSet<SeekFlags> flags = EnumSet.of(SeekFlags.SEGMENT, SeekFlags.FLUSH, SeekFlags.KEY_UNIT);
+            flags.addAll(getTrickModeFlags());
+            double rate = getPlaybackRate();
+            boolean accepted = pipeline.seek(rate, Format.TIME, flags, SeekType.SET, resume, SeekType.NONE, 0);
+            GSTEvents.seek(getPipelineName(), rate, resume, flags, accepted);
+        }
+        // Bus messages are dispatched by gst1-java-core's executor, so no main loop is needed here and
+        // nothing global has to be stopped to tear this pipeline down.
+        if (GSTUtil.VERBOSE) LX.log("GStreamer pipeline started : " + getPipelineName());
     }
 
     protected void updateCapsFilter(int width, int height) {
         if (capsFilter == null) {
             return;
         }
-        String capsStr = String.format("video/x-raw,width=%d,height=%d,format=BGRx",
-                widthKnob.getValuei(), heightKnob.getValuei());
+        String capsStr = String.format("video/x-raw,width=%d,height=%d,format=BGRx", width, height);
         capsFilter.set("caps", Caps.fromString(capsStr));
     }
 
+    /**
+     * @return The width to scale the video to, the Width knob reduced by the governor's quality level.
+     */
+    protected int getDecodeWidth() {
+        return Math.max(1, qualityLevel >= 2 ? widthKnob.getValuei() / 2 : widthKnob.getValuei());
+    }
+
+    protected int getDecodeHeight() {
+        return Math.max(1, qualityLevel >= 2 ? heightKnob.getValuei() / 2 : heightKnob.getValuei());
+    }
+
+    public int getQualityLevel() {
+        return qualityLevel;
+    }
+
+    /**
+     * @return Smoothed per frame cost of this pattern, sampling on the engine thread plus sample
+     * conversion on the streaming thread.
+     */
+    public long getCostNanos() {
+        return runCostNanos + chromatikSink.sampleCostNanos;
+    }
+
+    public long getLastRunNanos() {
+        return lastRunNanos;
+    }
+
+    /**
+     * Applies a GSTGovernor quality level, see GSTGovernor for what each level reduces.  Called from the
+     * engine thread.
+     */
+    public void setQualityLevel(int level) {
+        if (level == qualityLevel || offline) {
+            return;
+        }
+        boolean resize = (level >= 2) != (qualityLevel >= 2);
+        qualityLevel = level;
+        applyDecodeRate();
+        if (resize) {
+            updateCapsFilter(getDecodeWidth(), getDecodeHeight());
+        }
+    }
+
+    protected void applyDecodeRate() {
+        if (rateLimiter != null) {
+            rateLimiter.set("max-rate", qualityLevel >= 1 ? GOVERNOR_MAX_RATE : Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Copies the newest frame from the frame ring, if there is one, into the ChromatikSink.  The copy is
+     * a single bulk read of the slot and guarantees the writer cannot overwrite the frame while the
+     * points are being sampled.  It goes into whichever of the two ring images isn't the current frame.
+     */
+    protected void pollFrameRing() {
+        if (frameRing.getSequence() == frameRingSequence) {
+            return;
+        }
+        int width = frameRing.getWidth();
+        int height = frameRing.getHeight();
+        BufferedImage image = ringImages[ringImage];
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            ringImages[ringImage] = image;
+        }
+        if (image == sampledFrame) {
+            // The current frame was never sampled, e.g. governor throttling, so there is nothing left to
+            // compare tiles against.
+            sampledFrame = null;
+        }
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        long seq = frameRing.read(frameRingSequence, pixels);
+        if (seq > 0) {
+            frameRingSequence = seq;
+            chromatikSink.setFrame(image);
+            ringImage ^= 1;
+        }
+    }
+
+    protected void closeFrameRing() {
+        if (frameRing == null) {
+            return;
+        }
+        try {
+            frameRing.close();
+        } catch (IOException e) {
+            LX.log("Error closing frame ring: " + e.getMessage());
+        }
+        frameRing = null;
+        frameRingSequence = 0;
+    }
+
+    /**
+     * The gst-launch description of this pattern's source, up to the point where raw video comes out, for
+     * running in a GSTWorker process.  The worker appends the conversion, scaling and appsink.
+     * @return null if this pattern can't be isolated, which is the default.
+     */
+    protected String getWorkerSource() {
+        return null;
+    }
+
+    /**
+     * @return True if the worker's source is live, so pausing doesn't stop it and gaps in frames aren't
+     * treated as a hang.
+     */
+    protected boolean isWorkerLive() {
+        return true;
+    }
+
+    /**
+     * @return True if the worker should seek back to the start at end of stream.
+     */
+    protected boolean isWorkerLooping() {
+        return false;
+    }
+
+    protected boolean useWorker() {
+        return isolate.isOn() && getWorkerSource() != null;
+    }
+
+    protected void startWorker() {
+        stopWorker();
+        File ringFile = new File(GSTUtil.getPackageDir(lx) + "Workers" + File.separator
+                + getPipelineName() + "-" + Integer.toHexString(System.identityHashCode(this)) + ".ring");
+        ringFile.getParentFile().mkdirs();
+        if (GSTUtil.VERBOSE) LX.log("Starting GST worker for " + getPipelineName() + ": " + getWorkerSource());
+        worker = new GSTWorkerProcess(getPipelineName(), ringFile, widthKnob.getValuei(), heightKnob.getValuei(),
+                getWorkerSource(), isWorkerLooping(), isWorkerLive());
+        worker.start();
+    }
+
+    protected void stopWorker() {
+        if (worker == null) {
+            return;
+        }
+        closeFrameRing();
+        worker.stop();
+        worker = null;
+    }
+
+    /**
+     * Restarts a dead or hung worker and maps its ring once the worker has created it.
+     */
+    protected void pollWorker() {
+        if (worker.poll(frameRing) || (frameRing != null && !frameRing.isCompatible())) {
+            closeFrameRing();
+        }
+        if (frameRing == null && worker.getRingFile().exists()) {
+            try {
+                frameRing = FrameRing.open(worker.getRingFile());
+            } catch (IOException e) {
+                // Still being created, try again next frame.
+            }
+        }
+    }
+
     protected void disposePipeline() {
         // Clean up after main loop exits
         if (pipeline != null) pipeline.setState(State.NULL);
     }
 
+    /**
+     * Builds and starts the pipeline on the calling thread in offline mode, for rendering outside of a
+     * running engine.  The appsink neither syncs to the clock nor emits signals, and each run() pulls
+     * exactly one frame, so a clip renders as fast as it decodes and the output for frame N is the same on
+     * every run.  Must be called instead of onActive().
+     * @return False if the pipeline couldn't be built.
+     */
+    public boolean startOffline() {
+        offline = true;
+        offlineEnded = false;
+        ensureGstInitialized(getPipelineName());
+        pipeline = initializePipeline();
+        if (pipeline == null || offlineSink == null) {
+            return false;
+        }
+        configurePipelineBus();
+        return true;
+    }
+
+    /**
+     * @return The pattern's output from the last run(), for offline rendering.
+     */
+    int[] getRenderedColors() {
+        return colors;
+    }
+
+    /**
+     * @return True once an offline pipeline has delivered its last frame.
+     */
+    public boolean isOfflineEnded() {
+        return offlineEnded;
+    }
+
+    /**
+     * Tears down the current pipeline and builds a new one on a fresh GStreamer thread.  Subclasses
+     * that cache pipeline elements should clear them before calling this so that initializePipeline()
+     * creates new ones.
+     */
+    protected void restartPipeline() {
+        if (useWorker()) {
+            startWorker();
+            return;
+        }
+        disposePipeline();
+        gstInitialized = false;
+        if (gstThread != null) {
+            gstThread.interrupt();
+        }
+        initGSTWithThread(lx);
+    }
+
     /**
      * Create a video sink for the pipeline.  This method creates an element and connects the
      * ChromatikSink sample handler to the pipeline element.
@@ -189,13 +559,56 @@ abstract public class GSTBase extends LXPattern {
             capsString.append("format=xRGB");
         }
         videoSink.setCaps(Caps.fromString(capsString.toString()));
-        videoSink.connect(chromatikSink);
+        if (offline) {
+            // Pull mode, run() takes one frame at a time and the decoder waits for it.
+            videoSink.set("emit-signals", false);
+            videoSink.set("sync", false);
+            videoSink.set("max-buffers", 2);
+            offlineSink = videoSink;
+            return videoSink;
+        }
+        videoSink.connect((AppSink.NEW_SAMPLE) chromatikSink);
+        videoSink.connect((AppSink.NEW_PREROLL) chromatikSink);
         return videoSink;
     }
 
+    /**
+     * Wraps the video sink in a bin that tees the video into a second, heavily decimated branch for
+     * GSTVideoAnalyzer.  The analysis branch sits behind a valve that only opens while the Analyze
+     * parameter is on, so it costs next to nothing when unused.  Subclasses link their scaled video into
+     * the returned bin instead of directly into the appsink.
+     * @param videoSink The appsink from createVideoSink().
+     * @return A bin with a single sink pad.
+     */
+    protected Bin createOutputBin(AppSink videoSink) {
+        Bin outputBin = new Bin("output-bin");
+        Element tee = ElementFactory.make("tee", "output-tee");
+        Element displayQueue = ElementFactory.make("queue", "display-queue");
+        displayQueue.set("max-size-buffers", 2);
+        displayQueue.set("max-size-bytes", 0);
+        displayQueue.set("max-size-time", 0L);
+        Bin analysisBranch = Gst.parseBinFromDescription(GSTVideoAnalyzer.getBranchDescription(), true);
+        // Passes everything through unless the governor caps the decode rate.
+        rateLimiter = ElementFactory.make("videorate", "governor-rate");
+        rateLimiter.set("drop-only", true);
+        applyDecodeRate();
+        outputBin.addMany(tee, displayQueue, rateLimiter, videoSink, analysisBranch);
+        Element.linkMany(tee, displayQueue, rateLimiter, videoSink);
+        tee.link(analysisBranch);
+        outputBin.addPad(new GhostPad("sink", tee.getStaticPad("sink")));
+
+        AppSink analysisSink = (AppSink) analysisBranch.getElementByName("analysis-output");
+        analysisSink.setCaps(videoSink.getCaps());
+        analysisSink.connect(videoAnalyzer);
+        analysisValve = analysisBranch.getElementByName("analysis-valve");
+        analysisValve.set("drop", !analyze.isOn());
+        return outputBin;
+    }
+
     /**
      * Configures a generic pipeline bus to handle segments and perform loops.  This
-     * will also set the pipeline state to Playing.
+     * will also set the pipeline state to Playing.  In offline mode the pipeline plays through once
+     * from the start and ends with EOS instead.
      */
     protected void configurePipelineBus() {
         // Add bus message handlers before starting playback
@@ -206,16 +619,24 @@ abstract public class GSTBase extends LXPattern {
         bus.connect((Bus.MESSAGE) (bus1, message) -> {
             MessageType type = message.getType();
             if (GSTUtil.VERBOSE) LX.log("Message type: " + type + " : " + message.getSource().getName() + " pipeline: " + getPipelineName());
+            if (type == MessageType.SEGMENT_DONE || type == MessageType.ERROR) {
+                String text = (type == MessageType.ERROR) ? ((ErrorMessage) message).getMessage() : "";
+                GSTEvents.busMessage(getPipelineName(), type.toString(), message.getSource().getName(), text);
+            }
 
             // Loop video when segment is done
-            if (type == MessageType.SEGMENT_DONE) {
+            if (type == MessageType.SEGMENT_DONE && !offline) {
                 // GStreamer video looping
                 // https://stackoverflow.com/questions/53747278/seamless-video-loop-in-gstreamer
                 if (GSTUtil.VERBOSE) LX.log("Segment done, re-seeking to start of pipeline: " + getPipelineName());
 
                 chromatikSink.frameCount = 0;
                 //pipeline.seek(1.0, Format.TIME, EnumSet.of(SeekFlags.FLUSH, SeekFlags.ACCURATE), SeekType.SET, 0, SeekType.NONE, -1);
-                pipeline.seek(1.0, Format.TIME, EnumSet.of(SeekFlags.SEGMENT, SeekFlags.ACCURATE), SeekType.SET, 0, SeekType.NONE, 0);
+                EnumSet<SeekFlags> loopFlags = EnumSet.of(SeekFlags.SEGMENT, SeekFlags.ACCURATE);
+                loopFlags.addAll(getTrickModeFlags());
+                double rate = getPlaybackRate();
+                boolean accepted = pipeline.seek(rate, Format.TIME, loopFlags, SeekType.SET, 0, SeekType.NONE, 0);
+                GSTEvents.seek(getPipelineName(), rate, 0, loopFlags, accepted);
                 //pipeline.seek(1.0, Format.TIME, EnumSet.of(SeekFlags.FLUSH), SeekType.SET, 0, SeekType.NONE, 0);
             }
             if (type == MessageType.ERROR) {
@@ -224,26 +645,126 @@ abstract public class GSTBase extends LXPattern {
                     LX.log("Chromatik GST error on pipeline: " + getPipelineName() + " : " + errMsg.getCode() + " : " + errMsg.getMessage());
                     LX.log("Error source name: " + errMsg.getSource().getName());
                 }
-                pipeline.setState(State.NULL);
-                Gst.quit();
+                GSTMetrics.increment(getPipelineName() + ".errors");
+                onPipelineError(errMsg);
             }
         });
 
+        if (offline) {
+            // Preroll, then seek to the start with an accurate flushing seek before playing, so every run
+            // starts on the same frame with nothing decoded before the seek left in the appsink.  Without
+            // the SEGMENT flag the stream ends with EOS, which ends the render.
+            pipeline.setState(State.PAUSED);
+            pipeline.getState(ClockTime.NONE);
+            EnumSet<SeekFlags> offlineFlags = EnumSet.of(SeekFlags.FLUSH, SeekFlags.ACCURATE);
+            double rate = getPlaybackRate();
+            boolean accepted = pipeline.seek(rate, Format.TIME, offlineFlags, SeekType.SET, 0, SeekType.NONE, -1);
+            pipeline.getState(ClockTime.NONE);
+            GSTEvents.seek(getPipelineName(), rate, 0, offlineFlags, accepted);
+            pipeline.setState(State.PLAYING);
+            GSTEvents.stateChange(getPipelineName(), "PLAYING");
+            return;
+        }
+
         if (GSTUtil.VERBOSE) LX.log("Setting pipeline to PLAYING state: " + getPipelineName());
         // Start playing
         pipeline.setState(State.PLAYING);
         pipeline.getState(ClockTime.NONE);
+        GSTEvents.stateChange(getPipelineName(), "PLAYING");
 
         // Seek to start frame, this is necessary so that we get the segment done messages that we
         // need for re-seeking to the beginning in order to create an endless loop
-        pipeline.seek(1.0, Format.TIME, EnumSet.of(SeekFlags.SEGMENT), SeekType.SET, 0, SeekType.NONE, 0);
+        EnumSet<SeekFlags> startFlags = EnumSet.of(SeekFlags.SEGMENT);
+        startFlags.addAll(getTrickModeFlags());
+        double rate = getPlaybackRate();
+        boolean accepted = pipeline.seek(rate, Format.TIME, startFlags, SeekType.SET, 0, SeekType.NONE, 0);
+        GSTEvents.seek(getPipelineName(), rate, 0, startFlags, accepted);
+    }
+
+    /**
+     * @return Playback rate for the segment seeks that start, loop and sync the pipeline.
+     */
+    protected double getPlaybackRate() {
+        return 1.0;
+    }
+
+    /**
+     * @return Trick mode flags added to those seeks, empty for normal playback.
+     */
+    protected EnumSet<SeekFlags> getTrickModeFlags() {
+        return EnumSet.noneOf(SeekFlags.class);
+    }
+
+    /**
+     * Called from the bus handler when the pipeline posts an ERROR message.  By default the pipeline is
+     * stopped and GSTRecovery schedules a rebuild with backoff, which run() carries out.
+     * @param errMsg The error message from the bus.
+     */
+    protected void onPipelineError(ErrorMessage errMsg) {
+        if (offline) {
+            // The next pull returns null and ends the render.
+            return;
+        }
+        recovery.onError(errMsg, chromatikSink.lastPts);
+        pipeline.setState(State.NULL);
+    }
+
+    /**
+     * @return True if a rebuilt pipeline should seek back to where the failed one was, false for live
+     * sources.
+     */
+    protected boolean isResumable() {
+        return false;
+    }
+
+    /**
+     * Rebuilds the pipeline after an error.  Subclasses that cache pipeline elements clear them first,
+     * see restartPipeline().
+     */
+    protected void recoverPipeline() {
+        if (GSTUtil.VERBOSE) LX.log("Rebuilding pipeline after error: " + getPipelineName());
+        restartPipeline();
     }
 
     @Override
     public void onParameterChanged(LXParameter p) {
         super.onParameterChanged(p);
         if (p == widthKnob || p == heightKnob) {
-            updateCapsFilter(widthKnob.getValuei(), heightKnob.getValuei());
+            updateCapsFilter(getDecodeWidth(), getDecodeHeight());
+            if (worker != null) {
+                startWorker();
+            }
+        } else if (p == isolate) {
+            if (pipeline != null || worker != null) {
+                switchIsolation();
+            }
+        } else if (p == record && !record.isOn()) {
+            stopRecording();
+        } else if (p == analyze) {
+            if (analysisValve != null) {
+                analysisValve.set("drop", !analyze.isOn());
+            }
+        } else if (p == history && history.getValuei() == 0) {
+            releaseHistory(ledHistory);
+            ledHistory = null;
+        }
+    }
+
+    /**
+     * Moves a running pattern between its in-process pipeline and a worker process.
+     */
+    protected void switchIsolation() {
+        if (useWorker()) {
+            disposePipeline();
+            pipeline = null;
+            gstInitialized = false;
+            if (gstThread != null) {
+                gstThread.interrupt();
+            }
+            startWorker();
+        } else if (worker != null) {
+            stopWorker();
+            initGSTWithThread(lx);
         }
     }
 
@@ -253,10 +774,19 @@ abstract public class GSTBase extends LXPattern {
         // to return the plane to the XY plane. Rotate the points into the xy plane.
         // Translate the points to the origin.
 
+        if (useWorker()) {
+            if (worker == null) {
+                startWorker();
+            } else {
+                worker.play();
+            }
+            return;
+        }
         // Unpause the stream if it is playing
         if (pipeline != null) {
             if (GSTUtil.VERBOSE) LX.log("Resuming GStreamer playback on pipeline: " + getPipelineName());
             pipeline.setState(State.PLAYING);
+            GSTEvents.stateChange(getPipelineName(), "PLAYING");
             //pipeline.play();
         } else {
             // TODO(tracy): This could potentially copy a lot of files out of the jar file
@@ -268,32 +798,61 @@ abstract public class GSTBase extends LXPattern {
 
     @Override
     protected void onInactive() {
+        if (worker != null) {
+            worker.pause();
+            if (isSyncOn()) {
+                worker.seek(getSyncPosition());
+            }
+            return;
+        }
         // Pause the stream if it is playing
         if (pipeline != null) {
             if (GSTUtil.VERBOSE) LX.log("Pausing GStreamer playback on pipeline: " + getPipelineName());
             pipeline.setState(State.PAUSED);
+            GSTEvents.stateChange(getPipelineName(), "PAUSED");
             // By default, just set the seek position to the current position.  Note, that if
             // we don't do this then the pipeline will eventually blow up on Mac OS X.  Not
             // sure why, but this sacrificed chicken seems to be working.
             long targetPosition = pipeline.queryPosition(Format.TIME);
-            if (isSyncOn())
-                targetPosition = 0;
-            pipeline.seek(1.0, Format.TIME,
-              EnumSet.of(SeekFlags.SEGMENT, SeekFlags.FLUSH, SeekFlags.ACCURATE),
+            EnumSet<SeekFlags> flags = EnumSet.of(SeekFlags.SEGMENT, SeekFlags.FLUSH, SeekFlags.ACCURATE);
+            if (isSyncOn()) {
+                targetPosition = getSyncPosition();
+                flags = getSyncSeekFlags();
+            }
+            flags.addAll(getTrickModeFlags());
+            double rate = getPlaybackRate();
+            boolean accepted = pipeline.seek(rate, Format.TIME,
+              flags,
               SeekType.SET, targetPosition,
               SeekType.NONE, -1);
+            GSTEvents.seek(getPipelineName(), rate, targetPosition, flags, accepted);
         }
     }
 
     @Override
     public void dispose() {
         if (GSTUtil.VERBOSE) LX.log("Disposing GStreamer pipeline: " + getPipelineName());
+        stopRecording();
         disposePipeline();
+        stopWorker();
+        closeFrameRing();
+        releaseHistory(ledHistory);
+        releaseHistory(frameHistory);
+        ledHistory = null;
+        frameHistory = null;
         if (gstThread != null) {
             gstThread.interrupt();
         }
+        GSTGovernor.get(lx).unregister(this);
+        recovery.reset();
         super.dispose();
-        Gst.quit();
+    }
+
+    /**
+     * @return True if frames can arrive, from the pipeline, a frame ring or a subclass's own source.
+     */
+    protected boolean hasFrameSource() {
+        return pipeline != null || frameRing != null;
     }
 
     protected void preRun(double deltaMs) {
@@ -302,6 +861,18 @@ abstract public class GSTBase extends LXPattern {
     protected void postRun(double deltaMs) {
     }
 
+    protected long getSyncPosition() {
+        return 0;
+    }
+
+    /**
+     * The flushing seek to getSyncPosition() prerolls the frame there while the pattern is inactive, and
+     * ChromatikSink makes it the current frame, so activation starts on it immediately.
+     */
+    protected EnumSet<SeekFlags> getSyncSeekFlags() {
+        return EnumSet.of(SeekFlags.SEGMENT, SeekFlags.FLUSH, SeekFlags.ACCURATE);
+    }
+
     protected boolean isSyncOn() {
         return false;
     }
@@ -314,132 +885,325 @@ abstract public class GSTBase extends LXPattern {
      */
     @Override
     protected void run(double deltaMs) {
-        if (pipeline == null) {
+        if (worker != null) {
+            pollWorker();
+        } else if (pipeline != null && recovery.poll(chromatikSink.frameSequence)) {
+            recoverPipeline();
+        }
+        if (!hasFrameSource()) {
             return;
         }
+        if (offline && !offlineEnded && !chromatikSink.pull(offlineSink)) {
+            offlineEnded = true;
+        }
+        preRun(deltaMs);
+        if (frameRing != null) {
+            pollFrameRing();
+        }
+        if (analyze.isOn()) {
+            motion.setValue(videoAnalyzer.motion);
+            motionX.setValue(videoAnalyzer.motionX);
+            motionY.setValue(videoAnalyzer.motionY);
+            brightness.setValue(videoAnalyzer.brightness);
+            hue.setValue(videoAnalyzer.hue);
+        }
         if (chromatikSink.lastFrame == null) {
             return;
         }
-        preRun(deltaMs);
+        GSTEvents.RenderEvent renderEvent = new GSTEvents.RenderEvent();
+        renderEvent.begin();
         BufferedImage lastFrame = null;
+        long frameSequence;
         synchronized(chromatikSink.frameLock) {
             lastFrame = chromatikSink.lastFrame;
+            frameSequence = chromatikSink.frameSequence;
         }
 
-        if (lastFrame != null) renderWithUV(lastFrame);
+        renderMode = "none";
+        long renderStart = System.nanoTime();
+        if (lastFrame != null) {
+            if (qualityLevel >= 3 && (governorFrame++ & 1) == 1) {
+                // Governor level 3, keep the previous colors on every other engine frame.
+                renderMode = "throttled";
+            } else {
+                renderWithUV(lastFrame, frameSequence);
+            }
+        }
+        lastRunNanos = System.nanoTime();
+        runCostNanos += (lastRunNanos - renderStart - runCostNanos) / 8;
+        renderEvent.end();
+        if (renderEvent.shouldCommit()) {
+            renderEvent.pipeline = getPipelineName();
+            renderEvent.frameSequence = frameSequence;
+            renderEvent.mode = renderMode;
+            renderEvent.commit();
+        }
 
         postRun(deltaMs);
+
+        if (record.isOn() && recorder == null && Gst.isInitialized()) {
+            startRecording();
+        }
+        if (recorder != null && recorder.isFailed()) {
+            recorder = null;
+            record.setValue(false);
+        }
+        if (recorder != null) {
+            recorder.offer(colors);
+        }
+    }
+
+    protected void startRecording() {
+        if (uvPoints == null) {
+            computeUVs();
+        }
+        File outputFile = GSTRecorder.createOutputFile(lx, getPipelineName());
+        recorder = new GSTRecorder(getPipelineName(), outputFile, uvPoints, colors.length,
+                widthKnob.getValuei(), heightKnob.getValuei(), RECORD_FPS);
+        recorder.start(GSTRecorder.DEFAULT_ENCODER);
     }
 
-    protected void renderWithUV(BufferedImage lastFrame) {
+    protected void stopRecording() {
+        if (recorder != null) {
+            recorder.stop();
+            recorder = null;
+        }
+    }
+
+    /**
+     * Rebuilds the color LUT if any color correction value changed since the last frame.
+     */
+    protected boolean updateColorLUT() {
+        float g = gamma.getValuef();
+        float k = gain.getValuef();
+        float r = whiteRed.getValuef();
+        float gr = whiteGreen.getValuef();
+        float b = whiteBlue.getValuef();
+        float e = expandRange.isOn() ? 1 : 0;
+        float[] v = colorLUTValues;
+        if (v[0] != g || v[1] != k || v[2] != r || v[3] != gr || v[4] != b || v[5] != e) {
+            v[0] = g; v[1] = k; v[2] = r; v[3] = gr; v[4] = b; v[5] = e;
+            colorLUT.build(g, k, r, gr, b, e != 0);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return uOffset, vOffset, uWidth, vHeight, flipX, flipY, tileX, tileY and rotate for the sampling
+     * plan, in an array that is reused on every call.  Subclasses can adjust these to sample a sub-region
+     * of the frame.
+     */
+    protected float[] getSamplingParams() {
+        float[] p = currentSamplingParams;
+        p[0] = uOffset.getValuef();
+        p[1] = vOffset.getValuef();
+        p[2] = uWidth.getValuef();
+        p[3] = vHeight.getValuef();
+        p[4] = flipHorizontal.isOn() ? 1 : 0;
+        p[5] = flipVertical.isOn() ? 1 : 0;
+        p[6] = tileX.getValuei();
+        p[7] = tileY.getValuei();
+        p[8] = rotate.getValuef();
+        return p;
+    }
+
+    /**
+     * Recompiles the sampling plan if the frame size, a uv parameter or the uv points changed.
+     * @return True if the plan was recompiled.
+     */
+    protected boolean updateSamplingPlan(int width, int height) {
+        float[] p = getSamplingParams();
+        if (samplingPlan != null && samplingPlan.matches(width, height) && planUVVersion == uvVersion
+                && Arrays.equals(p, samplingParams)) {
+            return false;
+        }
+        System.arraycopy(p, 0, samplingParams, 0, p.length);
+        planUVVersion = uvVersion;
+        samplingPlan = GSTUVCache.getPlan(lx, this, uvKey, uvPoints, colors.length, width, height, samplingParams);
+        GSTMetrics.increment("render.plans");
+        return true;
+    }
+
+    static protected int[] getPixels(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB && image.getRaster().getDataBuffer() instanceof DataBufferInt) {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    /**
+     * Samples the frame into colors using the compiled sampling plan and the color LUT.  If the frame
+     * sequence, the plan and the LUT are all unchanged, the previous output is copied.  If only the frame
+     * changed, just the points in tiles whose pixels differ from the previous frame are sampled again.
+     */
+    protected void renderWithUV(BufferedImage lastFrame, long frameSequence) {
         int width = lastFrame.getWidth();
         int height = lastFrame.getHeight();
-        // Re-use this array so we aren't allocating so many objects.
-        float[] uvs = {0f, 0f};
 
         if (uvPoints == null || uvsNeedUpdate) {
             computeUVs();
         }
+        boolean fullRender = updateColorLUT();
+        fullRender |= updateSamplingPlan(width, height);
+        if (sampledColors == null || sampledColors.length != colors.length) {
+            sampledColors = new int[colors.length];
+            fullRender = true;
+        }
+        final SamplingPlan plan = samplingPlan;
+        final int[] pixels = getPixels(lastFrame);
 
-        // Use the UVPoint coordinates to map the colors to the model.  This is based on computing the normal plane
-        // and then handling fixture rotations to compute the uv coordinates.
-        for (UVPoint uv : uvPoints) {
-            uvs[0] = uv.u;
-            uvs[1] = uv.v;
-            if (flipHorizontal.isOn()) {
-                uvs[0] = 1f - uvs[0];
+        if (fullRender || sampledFrame == null || !plan.matches(sampledFrame.getWidth(), sampledFrame.getHeight())) {
+            sampleRange(plan, pixels, 0, plan.pointIndex.length);
+            int black = colorLUT.apply(0);
+            for (int index : plan.outsideIndex) {
+                sampledColors[index] = black;
             }
-            if (flipVertical.isOn()) {
-                uvs[1] = 1f - uvs[1];
+            GSTMetrics.increment("render.full");
+            renderMode = "full";
+        } else if (frameSequence != sampledSequence) {
+            final int[] previous = getPixels(sampledFrame);
+            int tiles = plan.tilesX * plan.tilesY;
+            for (int t = 0; t < tiles; t++) {
+                int from = plan.tileStart[t];
+                int to = plan.tileStart[t + 1];
+                if (from < to && plan.tileChanged(previous, pixels, t)) {
+                    sampleRange(plan, pixels, from, to);
+                }
             }
-            if (tileX.getValuei() > 1) {
-                uvs[0] = (uvs[0] * tileX.getValuei() - 0.01f) % 1f;
+            GSTMetrics.increment("render.partial");
+            renderMode = "partial";
+        } else {
+            GSTMetrics.increment("render.skipped");
+            renderMode = "skipped";
+        }
+        sampledFrame = lastFrame;
+        sampledSequence = frameSequence;
+        System.arraycopy(sampledColors, 0, colors, 0, colors.length);
+        if (history.getValuei() > 0 || frameHistoryLength > 0) {
+            renderHistory(pixels, width, height, frameSequence);
+        }
+        if (plan.staleUVs) {
+            uvsNeedUpdate = true;
+        }
+    }
+
+    private void sampleRange(SamplingPlan plan, int[] pixels, int from, int to) {
+        sampleKernel.sample(pixels, plan.pointIndex, plan.pixelOffset, from, to, colorLUT, sampledColors);
+    }
+
+    /**
+     * Keeps the given number of decoded frames at the decode resolution in frameHistory, for subclasses
+     * that sample the past themselves.  0 releases it.
+     */
+    protected void setFrameHistory(int frames) {
+        if (frames != frameHistoryLength) {
+            releaseHistory(frameHistory);
+            frameHistory = null;
+        }
+        frameHistoryLength = frames;
+    }
+
+    /**
+     * @return The decoded frame history, null until setFrameHistory() and the first frame.  Age 0 is the
+     * current frame, offsets are y * width + x.
+     */
+    public FrameHistory getFrameHistory() {
+        return frameHistory;
+    }
+
+    static private void releaseHistory(FrameHistory h) {
+        if (h != null) {
+            h.release();
+        }
+    }
+
+    /**
+     * Pushes a new video frame into the histories, (re)allocating them when their size changed, and
+     * replaces colors with the time displaced colors.
+     */
+    private void renderHistory(int[] pixels, int width, int height, long frameSequence) {
+        long now = System.nanoTime();
+        boolean newFrame = frameSequence != historySequence;
+        historySequence = frameSequence;
+        if (frameHistoryLength > 0) {
+            int length = width * height;
+            if (frameHistory == null || frameHistory.getLength() != length) {
+                releaseHistory(frameHistory);
+                frameHistory = FrameHistory.allocate(getPipelineName() + " frames", frameHistoryLength, length);
+                if (frameHistory == null) {
+                    frameHistoryLength = 0;
+                }
+                newFrame = true;
             }
-            if (tileY.getValuei() > 1) {
-                uvs[1] = (uvs[1] * tileY.getValuei() - 0.01f) % 1f;
+            if (frameHistory != null && newFrame) {
+                frameHistory.push(pixels, now);
             }
-            if (rotate.getValuef() > 0) {
-                rotateUV(uvs[0], uvs[1], rotate.getValuef() * (float)Math.PI * 2, uvs);
+        }
+        int frames = history.getValuei();
+        if (frames == 0) {
+            return;
+        }
+        if (ledHistory == null || ledHistory.getLength() != colors.length
+                || ledHistoryFrames != frames) {
+            releaseHistory(ledHistory);
+            ledHistory = FrameHistory.allocate(getPipelineName() + " LEDs", frames, colors.length);
+            if (ledHistory == null) {
+                history.setValue(0);
+                return;
             }
+            ledHistoryFrames = frames;
+            newFrame = true;
+        }
+        if (newFrame) {
+            ledHistory.push(sampledColors, now);
+        }
 
-            int x = Math.round((uOffset.getValuef() + uvs[0] * uWidth.getValuef()) * (width-1));
-            int y = Math.round((vOffset.getValuef() + uvs[1] * vHeight.getValuef()) * (height-1));
+        float amount = timeDisplace.getValuef();
+        int size = ledHistory.size();
+        if (amount == 0 || size < 2) {
+            return;
+        }
+        float maxAge = amount * (size - 1);
+        if (timeMode.getEnum() == TimeMode.ECHO) {
+            ledHistory.get(Math.round(maxAge), colors);
+            return;
+        }
+        final float[] delay = getPointDelay();
+        final FrameHistory h = ledHistory;
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = h.get((int) (delay[i] * maxAge + 0.5f), i);
+        }
+    }
 
-            int color = 0;
-            if (x >= 0 && x < width && y >= 0 && y < height) {
-                color = lastFrame.getRGB(x, y);
-            }
-            if (uv.point.index < colors.length)
-                colors[uv.point.index] = LXColor.rgb(LXColor.red(color), LXColor.green(color), LXColor.blue(color));
-            else {
-                uvsNeedUpdate = true;
+    private float[] getPointDelay() {
+        TimeMode mode = timeMode.getEnum();
+        if (pointDelay == null || pointDelay.length != colors.length || pointDelayVersion != uvVersion
+                || pointDelayMode != mode) {
+            pointDelay = new float[colors.length];
+            for (UVPoint uv : uvPoints) {
+                // Stale uvs from before a model change, the plan flags them and they are rebuilt next frame.
+                if (uv.point.index >= pointDelay.length) {
+                    continue;
+                }
+                float d = (mode == TimeMode.SLIT_U) ? uv.u : uv.v;
+                pointDelay[uv.point.index] = Math.max(0, Math.min(1, d));
             }
+            pointDelayVersion = uvVersion;
+            pointDelayMode = mode;
         }
+        return pointDelay;
     }
 
-    //
-    //
-    // =========== SPATIAL UV COORDINATE MAPPING BELOW ===========
-    //
-    // TODO(tracy): There is still an issue with 'Roll' on the fixture since a purely plane normal approach
-    // can't fix that.  It would be nice to use the transform matrix on the fixture to handle it, but not
-    // sure that works in general with a 'View' (a view can be a group of fixtures).  This will have to
-    // wait until a GridModel selector approach is implemented.
-    //
-
     public void rotateUV(float u, float v, float rad, float[] results) {
-        // Rotate a UV coordinate around the origin by rad radians. uv are 0 to 1 normalized coordinates.
-        // we want to rotate around the center at 0.5, 0.5.
-        float x = u - 0.5f;
-        float y = v - 0.5f;
-        float cos = (float) Math.cos(rad);
-        float sin = (float) Math.sin(rad);
-        results[0] = x * cos - y * sin + 0.5f;
-        results[1] = x * sin + y * cos + 0.5f;
+        SamplingPlan.rotateUV(u, v, rad, results);
     }
 
     protected void computeUVs() {
-        if (uvPoints == null || uvsNeedUpdate)
-            uvPoints = new ArrayList<UVPoint>(model.points.length);
-        else
-            uvPoints.clear();
-
-        float[] planeNormal = UVUtil.computePlaneNormal(model);
-        //LX.log("Plane normal= " + planeNormal[0] + " " + planeNormal[1] + " " + planeNormal[2]);
-
-        UVUtil.normalizePlaneNormal(planeNormal);
-        //LX.log("Normalized plane normal= " + planeNormal[0] + " " + planeNormal[1] + " " + planeNormal[2]);
-
-        float[] rotateAxisAngle = UVUtil.computeAxesRotates(planeNormal);
-        float[] rotateAxis = {rotateAxisAngle[0], rotateAxisAngle[1], rotateAxisAngle[2]};
-        float rotateAngle = rotateAxisAngle[3];
-        //LX.log("Rotate angle: " + rotateAngle);
-        float[] rotatedPoint = new float[3];
-        //LX.log("Updating UV coordinates. Rotating plane to XY plane: " + rotateAxis[0] + " " + rotateAxis[1] + " " + rotateAxis[2] + " " + rotateAngle);
-
-        // NOTE: Using just the plane normal doesn't handle the 'Roll' of the fixture.
-        UVUtil.normalizePlaneNormal(rotateAxis);
-        boolean vectorNonZero = UVUtil.vectorLength(rotateAxis) > 0;
-        for (LXPoint p : model.points) {
-            // For each point, rotate by rotateAxisAngle to get the plane normal to the XY plane.
-            // And then construct the UVPoint from the x and y coordinates.
-            float[] point = {p.x, p.y, p.z};
-
-            // Rotate the point to the XY plane
-            //if (vectorNonZero) {
-                UVUtil.rotatePointAroundAxis(point, rotateAxis, rotateAngle, rotatedPoint);
-            //} else {
-            //    rotatedPoint[0] = point[0];
-            //    rotatedPoint[1] = point[1];
-            //    rotatedPoint[2] = point[2];
-            //}
-
-            UVPoint uv = new UVPoint(p, rotatedPoint[0], rotatedPoint[1]);
-            uv.u = p.x;
-            uv.v = p.y;
-            uvPoints.add(uv);
-        }
-        // Points are still in world space.  Renormalize the UVs to be between 0 and 1.
-        UVPoint.renormalizeUVs(uvPoints);
+        // Shared with other patterns on the same points, see GSTUVCache.
+        uvKey = GSTUVCache.modelKey(model);
+        uvPoints = GSTUVCache.getUVPoints(lx, model, uvKey);
+        uvsNeedUpdate = false;
+        uvVersion++;
     }
 }
@@ -0,0 +1,194 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import org.freedesktop.gstreamer.Element;
+import org.freedesktop.gstreamer.ElementFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads GStreamer in the background when the package is loaded, so the first GST pattern to go active
+ * doesn't pay for loading the native libraries, scanning the plugin registry and loading the plugins it
+ * uses.  Started by ChromatikGSTPlugin and, in case the plugin is not enabled, by the first GST pattern.
+ *
+ * The native library path comes from gstreamer.properties in the ChromatikGST media directory, which is
+ * written with commented defaults on first run:
+ *
+ *   library.path      directories with the GStreamer libraries, separated by the platform path separator
+ *   prewarm           false to skip loading the plugins up front
+ *   prewarm.elements  extra element factories to load, separated by commas
+ *
+ * Without a configured path the standard GStreamer framework location is used on Mac and
+ * GSTREAMER_1_0_ROOT_MSVC_X86_64 on Windows.  Linux uses the system library path.
+ */
+public class GSTBootstrap {
+
+    static public final String CONFIG_FILE = "gstreamer.properties";
+    // Element factories every GST pattern needs, see GSTBase.createOutputBin() and GSTVideo.
+    static public final List<String> PREWARM_ELEMENTS = Arrays.asList(
+            "playbin", "uridecodebin", "videoconvert", "videoscale", "videorate", "capsfilter", "appsink");
+
+    static private final String[] MAC_LIBRARY_PATHS = {
+            "/Library/Frameworks/GStreamer.framework/Versions/1.0/lib",
+            "/Volumes/Macintosh HD/System/Volumes/Data/Library/Frameworks/GStreamer.framework/Versions/1.0/lib"
+    };
+
+    static private boolean libraryPathConfigured = false;
+    static private boolean defaultsAdded = false;
+    static private CompletableFuture<Void> bootstrapFuture = null;
+
+    /**
+     * Reads the configuration, sets jna.library.path and starts loading GStreamer on a background thread
+     * if that hasn't happened yet.
+     * @return Completes when GStreamer is initialized and the plugins are loaded.
+     */
+    static public synchronized CompletableFuture<Void> startAsync(LX lx) {
+        if (bootstrapFuture == null) {
+            bootstrapFuture = new CompletableFuture<>();
+            // The path has to be set on this thread, before anything touches JNA.
+            Properties config = loadConfig(lx);
+            configureLibraryPath(config);
+            Thread thread = new Thread(() -> {
+                try {
+                    bootstrap(config);
+                } catch (Throwable t) {
+                    LX.error(t, "GStreamer failed to load, check " + CONFIG_FILE + " in " + GSTUtil.getPackageDir(lx));
+                } finally {
+                    bootstrapFuture.complete(null);
+                }
+            }, "ChromatikGST-bootstrap");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return bootstrapFuture;
+    }
+
+    static private void bootstrap(Properties config) {
+        long startNanos = System.nanoTime();
+        GSTBase.ensureGstInitialized("ChromatikGST");
+        long initNanos = System.nanoTime();
+        int loaded = 0;
+        if (!"false".equals(config.getProperty("prewarm"))) {
+            Set<String> elements = new LinkedHashSet<>(PREWARM_ELEMENTS);
+            for (String extra : config.getProperty("prewarm.elements", "").split(",")) {
+                if (!extra.trim().isEmpty()) {
+                    elements.add(extra.trim());
+                }
+            }
+            for (String name : elements) {
+                // Making an element loads its plugin's shared library, which find() alone doesn't.
+                try {
+                    Element element = ElementFactory.make(name, "prewarm-" + name);
+                    element.dispose();
+                    loaded++;
+                } catch (IllegalArgumentException e) {
+                    LX.log("GStreamer element not available: " + name);
+                }
+            }
+        }
+        long endNanos = System.nanoTime();
+        long initMs = (initNanos - startNanos) / 1_000_000;
+        long prewarmMs = (endNanos - initNanos) / 1_000_000;
+        GSTMetrics.set("bootstrap.initMs", initMs);
+        GSTMetrics.set("bootstrap.prewarmMs", prewarmMs);
+        LX.log("GStreamer ready in " + (initMs + prewarmMs) + "ms: init and registry " + initMs + "ms, "
+                + loaded + " elements loaded in " + prewarmMs + "ms");
+    }
+
+    /**
+     * Adds the GStreamer library directories to jna.library.path.  A configured path is added in front of
+     * the defaults if the defaults were already set by GSTBase's static initializer, which works as long as
+     * GStreamer hasn't been loaded yet.
+     * @param config The package configuration, or null for the platform defaults only.
+     */
+    static synchronized void configureLibraryPath(Properties config) {
+        if (libraryPathConfigured) {
+            return;
+        }
+        String configured = (config != null) ? config.getProperty("library.path", "").trim() : "";
+        List<String> directories = new ArrayList<>();
+        if (!configured.isEmpty()) {
+            directories.addAll(Arrays.asList(configured.split(File.pathSeparator)));
+        }
+        if (!defaultsAdded) {
+            directories.addAll(getDefaultLibraryPaths());
+            defaultsAdded = true;
+        }
+        libraryPathConfigured = (config != null);
+        StringBuilder newPath = new StringBuilder();
+        for (String dir : directories) {
+            if (dir.isEmpty() || !new File(dir).isDirectory()) {
+                continue;
+            }
+            if (newPath.length() > 0) {
+                newPath.append(File.pathSeparator);
+            }
+            newPath.append(dir);
+        }
+        if (newPath.length() == 0) {
+            return;
+        }
+        String currentPath = System.getProperty("jna.library.path");
+        if (currentPath != null && !currentPath.isEmpty()) {
+            newPath.append(File.pathSeparator).append(currentPath);
+        }
+        System.setProperty("jna.library.path", newPath.toString());
+        if (GSTUtil.VERBOSE) LX.log("jna.library.path: " + newPath);
+    }
+
+    static private List<String> getDefaultLibraryPaths() {
+        List<String> directories = new ArrayList<>();
+        String osName = System.getProperty("os.name");
+        if (osName.startsWith("Mac")) {
+            directories.addAll(Arrays.asList(MAC_LIBRARY_PATHS));
+        } else if (osName.startsWith("Windows")) {
+            String root = System.getenv("GSTREAMER_1_0_ROOT_MSVC_X86_64");
+            if (root != null) {
+                directories.add(root + File.separator + "bin");
+            }
+        }
+        return directories;
+    }
+
+    static private Properties loadConfig(LX lx) {
+        Properties config = new Properties();
+        File file = new File(GSTUtil.getPackageDir(lx) + CONFIG_FILE);
+        if (!file.exists()) {
+            writeDefaultConfig(file);
+            return config;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            config.load(in);
+        } catch (IOException e) {
+            LX.error(e, "Error reading " + file);
+        }
+        return config;
+    }
+
+    static private void writeDefaultConfig(File file) {
+        file.getParentFile().mkdirs();
+        try (Writer out = new FileWriter(file)) {
+            out.write("# ChromatikGST GStreamer configuration, read when the package loads.\n");
+            out.write("# Directories with the GStreamer libraries, separated by '" + File.pathSeparator + "'.\n");
+            out.write("# Defaults to the standard install location for this platform.\n");
+            out.write("#library.path=" + String.join(File.pathSeparator, getDefaultLibraryPaths()) + "\n");
+            out.write("# Load these plugins at startup instead of on the first activation.\n");
+            out.write("#prewarm=true\n");
+            out.write("#prewarm.elements=avdec_h264,jpegdec\n");
+        } catch (IOException e) {
+            LX.error(e, "Error writing " + file);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package xyz.theforks.chromatikgst;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One mode a live source can capture in: media type, pixel format, size and frame rate, each either fixed
+ * or a range.  parse() reads the caps a source advertises, in GStreamer's caps string form, and choose()
+ * picks the cheapest mode that still covers what the LED sampling needs, so a camera isn't asked for
+ * 1080p MJPEG only for it to be decoded and scaled down to 160x120.
+ *
+ * Works on caps strings only so the choice can be checked without GStreamer, see GSTCaptureModeCheck.
+ */
+public class GSTCaptureMode {
+
+    static public final String RAW = "video/x-raw";
+    // Decoding a compressed frame is counted as this many raw frames of the same size.
+    static public final double COMPRESSED_COST = 2.0;
+
+    public final String mediaType;
+    // Null when the source leaves it open.
+    public final String format;
+    public final int minWidth, maxWidth;
+    public final int minHeight, maxHeight;
+    public final double minFps, maxFps;
+    // The frame rate as advertised, for fixed rates such as 30000/1001, otherwise null.
+    public final String fpsFraction;
+
+    public GSTCaptureMode(String mediaType, String format, int minWidth, int maxWidth, int minHeight,
+                          int maxHeight, double minFps, double maxFps, String fpsFraction) {
+        this.mediaType = mediaType;
+        this.format = format;
+        this.minWidth = minWidth;
+        this.maxWidth = maxWidth;
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+        this.fpsFraction = fpsFraction;
+    }
+
+    public boolean isCompressed() {
+        return !RAW.equals(mediaType);
+    }
+
+    public boolean isFixed() {
+        return minWidth == maxWidth && minHeight == maxHeight && minFps == maxFps;
+    }
+
+    /**
+     * @return This mode narrowed to the smallest size and rate that covers the request, as far as its
+     * ranges allow.
+     */
+    public GSTCaptureMode fit(int width, int height, double fps) {
+        int w = Math.max(minWidth, Math.min(maxWidth, width));
+        int h = Math.max(minHeight, Math.min(maxHeight, height));
+        if (minFps == maxFps) {
+            return new GSTCaptureMode(mediaType, format, w, w, h, h, minFps, maxFps, fpsFraction);
+        }
+        double f = Math.max(minFps, Math.min(maxFps, fps));
+        return new GSTCaptureMode(mediaType, format, w, w, h, h, f, f, null);
+    }
+
+    public boolean covers(int width, int height, double fps) {
+        return maxWidth >= width && maxHeight >= height && maxFps >= fps;
+    }
+
+    /**
+     * @return Relative decode and scale cost per second of a fixed mode.
+     */
+    public double getCost() {
+        return (double) maxWidth * maxHeight * maxFps * (isCompressed() ? COMPRESSED_COST : 1.0);
+    }
+
+    /**
+     * @return The cheapest fixed mode that covers the size and rate, or the one that comes closest if none
+     * does, or null if there are no modes.  Raw wins a tie.
+     */
+    static public GSTCaptureMode choose(List<GSTCaptureMode> modes, int width, int height, double fps) {
+        GSTCaptureMode best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (GSTCaptureMode mode : modes) {
+            if (!mode.covers(width, height, fps)) {
+                continue;
+            }
+            GSTCaptureMode fitted = mode.fit(width, height, fps);
+            double cost = fitted.getCost();
+            if (cost < bestCost || (cost == bestCost && best.isCompressed() && !fitted.isCompressed())) {
+                best = fitted;
+                bestCost = cost;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        double bestScore = -1;
+        for (GSTCaptureMode mode : modes) {
+            GSTCaptureMode fitted = mode.fit(width, height, fps);
+            double score = Math.min(1.0, (double) fitted.maxWidth / width)
+                    * Math.min(1.0, (double) fitted.maxHeight / height)
+                    * Math.min(1.0, fitted.maxFps / fps);
+            double cost = fitted.getCost();
+            if (score > bestScore || (score == bestScore && cost < bestCost)) {
+                best = fitted;
+                bestScore = score;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return Caps for a capsfilter that selects this mode, which must be fixed.
+     */
+    public String toCaps() {
+        StringBuilder caps = new StringBuilder(mediaType);
+        if (format != null) {
+            caps.append(",format=").append(format);
+        }
+        caps.append(",width=").append(maxWidth).append(",height=").append(maxHeight);
+        caps.append(",framerate=").append(fpsFraction != null ? fpsFraction : Math.round(maxFps) + "/1");
+        return caps.toString();
+    }
+
+    @Override
+    public String toString() {
+        String type = isCompressed() ? mediaType.substring(mediaType.indexOf('/') + 1).toUpperCase() : format;
+        String fps = (minFps == maxFps) ? String.format("%.4g", maxFps) : String.format("%.4g-%.4g", minFps, maxFps);
+        String size = (minWidth == maxWidth && minHeight == maxHeight) ? maxWidth + "x" + maxHeight
+                : minWidth + "-" + maxWidth + "x" + minHeight + "-" + maxHeight;
+        return (type != null ? type : "raw") + " " + size + " @ " + fps;
+    }
+
+    static private final Pattern FIELD = Pattern.compile("([\\w-]+)=\\((\\w+)\\)(\\[[^\\]]*\\]|\\{[^}]*\\}|\"[^\"]*\"|[^,]*)");
+
+    /**
+     * Expands caps as printed by GStreamer, e.g. "image/jpeg, width=(int)1280, height=(int)720,
+     * framerate=(fraction){ 30/1, 15/1 }; video/x-raw, format=(string)YUY2, ...", into modes, one per
+     * listed size, format and rate.  Ranges are kept as ranges.  Structures that aren't video, or carry
+     * caps features such as memory:NVMM, are skipped.
+     */
+    static public List<GSTCaptureMode> parse(String caps) {
+        List<GSTCaptureMode> modes = new ArrayList<>();
+        if (caps == null) {
+            return modes;
+        }
+        for (String structure : caps.split(";")) {
+            structure = structure.trim();
+            int comma = structure.indexOf(',');
+            String mediaType = (comma < 0 ? structure : structure.substring(0, comma)).trim();
+            if (mediaType.isEmpty() || mediaType.contains("(") || !(mediaType.startsWith("video/") || mediaType.startsWith("image/"))) {
+                continue;
+            }
+            List<String> formats = new ArrayList<>();
+            List<int[]> widths = new ArrayList<>();
+            List<int[]> heights = new ArrayList<>();
+            List<String> rates = new ArrayList<>();
+            Matcher m = FIELD.matcher(comma < 0 ? "" : structure.substring(comma + 1));
+            while (m.find()) {
+                String value = m.group(3).trim();
+                switch (m.group(1)) {
+                    case "format": formats.addAll(values(value)); break;
+                    case "width": widths.addAll(intRanges(value)); break;
+                    case "height": heights.addAll(intRanges(value)); break;
+                    case "framerate": rates.addAll(values(value)); break;
+                }
+            }
+            if (formats.isEmpty()) formats.add(null);
+            if (widths.isEmpty()) widths.add(new int[] { 1, Integer.MAX_VALUE });
+            if (heights.isEmpty()) heights.add(new int[] { 1, Integer.MAX_VALUE });
+            if (rates.isEmpty()) rates.add("[ 0/1, 2147483647/1 ]");
+            for (String format : formats) {
+                for (int[] w : widths) {
+                    for (int[] h : heights) {
+                        for (String rate : rates) {
+                            if (rate.startsWith("[")) {
+                                String[] bounds = rate.substring(1, rate.length() - 1).split(",");
+                                modes.add(new GSTCaptureMode(mediaType, format, w[0], w[1], h[0], h[1],
+                                        fraction(bounds[0]), fraction(bounds[1]), null));
+                            } else {
+                                double f = fraction(rate);
+                                modes.add(new GSTCaptureMode(mediaType, format, w[0], w[1], h[0], h[1], f, f, rate));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return modes;
+    }
+
+    /**
+     * @return The items of a { a, b } list, the whole of a [ a, b ] range, or the single value.
+     */
+    static private List<String> values(String value) {
+        List<String> result = new ArrayList<>();
+        if (value.startsWith("{")) {
+            for (String item : value.substring(1, value.length() - 1).split(",")) {
+                result.add(unquote(item.trim()));
+            }
+        } else {
+            result.add(unquote(value));
+        }
+        return result;
+    }
+
+    static private List<int[]> intRanges(String value) {
+        List<int[]> result = new ArrayList<>();
+        if (value.startsWith("[")) {
+            String[] bounds = value.substring(1, value.length() - 1).split(",");
+            result.add(new int[] { Integer.parseInt(bounds[0].trim()), Integer.parseInt(bounds[1].trim()) });
+        } else {
+            for (String item : values(value)) {
+                int v = Integer.parseInt(item);
+                result.add(new int[] { v, v });
+            }
+        }
+        return result;
+    }
+
+    static private String unquote(String value) {
+        return (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+                ? value.substring(1, value.length() - 1) : value;
+    }
+
+    static private double fraction(String value) {
+        String[] parts = value.trim().split("/");
+        double numerator = Double.parseDouble(parts[0].trim());
+        double denominator = (parts.length > 1) ? Double.parseDouble(parts[1].trim()) : 1;
+        return denominator != 0 ? numerator / denominator : 0;
+    }
+}
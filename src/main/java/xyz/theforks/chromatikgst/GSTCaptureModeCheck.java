@@ -0,0 +1,82 @@
+package xyz.theforks.chromatikgst;
+
+import java.util.List;
+
+/**
+ * Checks GSTCaptureMode's parsing and choice against the caps of typical cameras, without GStreamer:
+ *
+ * java -cp target/classes xyz.theforks.chromatikgst.GSTCaptureModeCheck
+ *
+ * With --gst it also probes videotestsrc stand-ins that advertise fixed camera-like modes, through the same
+ * GSTAutoVideo.probeCaptureModes() the pattern uses, which needs the full classpath:
+ *
+ * mvn -Pcapturecheck compile exec:java -Dexec.args="--gst"
+ *
+ * Exits with status 1 if any choice differs from the expected one.
+ */
+public class GSTCaptureModeCheck {
+
+    // A UVC webcam: MJPEG at every size, YUY2 only at full rate up to 640x480.
+    static private final String WEBCAM =
+            "image/jpeg, width=(int)1920, height=(int)1080, pixel-aspect-ratio=(fraction)1/1, framerate=(fraction){ 30/1, 15/1 }; "
+            + "image/jpeg, width=(int)1280, height=(int)720, pixel-aspect-ratio=(fraction)1/1, framerate=(fraction){ 30/1, 15/1 }; "
+            + "image/jpeg, width=(int)640, height=(int)480, pixel-aspect-ratio=(fraction)1/1, framerate=(fraction)30/1; "
+            + "video/x-raw, format=(string)YUY2, width=(int)1920, height=(int)1080, pixel-aspect-ratio=(fraction)1/1, framerate=(fraction)5/1; "
+            + "video/x-raw, format=(string)YUY2, width=(int)1280, height=(int)720, pixel-aspect-ratio=(fraction)1/1, framerate=(fraction)10/1; "
+            + "video/x-raw, format=(string)YUY2, width=(int)640, height=(int)480, pixel-aspect-ratio=(fraction)1/1, framerate=(fraction)30/1; "
+            + "video/x-raw, format=(string)YUY2, width=(int)320, height=(int)240, pixel-aspect-ratio=(fraction)1/1, framerate=(fraction)30/1";
+
+    // A capture card that only does 1080p in two formats, with an NTSC rate.
+    static private final String CAPTURE_CARD =
+            "video/x-raw, format=(string){ NV12, YUY2 }, width=(int)1920, height=(int)1080, framerate=(fraction)30000/1001; "
+            + "video/x-raw(memory:NVMM), format=(string)NV12, width=(int)1920, height=(int)1080, framerate=(fraction)60/1";
+
+    // A scalable source such as videotestsrc.
+    static private final String SCALABLE =
+            "video/x-raw, format=(string){ BGRx, I420 }, width=(int)[ 1, 2147483647 ], height=(int)[ 1, 2147483647 ], framerate=(fraction)[ 0/1, 2147483647/1 ]";
+
+    static private int failures = 0;
+
+    static private void expect(String name, List<GSTCaptureMode> modes, int width, int height, double fps, String expected) {
+        GSTCaptureMode chosen = GSTCaptureMode.choose(modes, width, height, fps);
+        String caps = (chosen != null) ? chosen.toCaps() : "none";
+        boolean ok = caps.equals(expected);
+        if (!ok) {
+            failures++;
+        }
+        System.out.println(String.format("%-4s %-14s %4dx%-4d @ %-3.0f -> %s%s", ok ? "ok" : "FAIL", name, width, height,
+                fps, caps, ok ? "" : "  (expected " + expected + ")"));
+    }
+
+    public static void main(String[] args) {
+        List<GSTCaptureMode> webcam = GSTCaptureMode.parse(WEBCAM);
+        List<GSTCaptureMode> card = GSTCaptureMode.parse(CAPTURE_CARD);
+        List<GSTCaptureMode> scalable = GSTCaptureMode.parse(SCALABLE);
+        System.out.println("webcam modes: " + webcam.size() + ", capture card modes: " + card.size()
+                + ", scalable modes: " + scalable.size());
+
+        expect("webcam", webcam, 160, 120, 30, "video/x-raw,format=YUY2,width=320,height=240,framerate=30/1");
+        expect("webcam", webcam, 400, 300, 30, "video/x-raw,format=YUY2,width=640,height=480,framerate=30/1");
+        // Raw 720p only does 10fps, so MJPEG is the only way to get 30.
+        expect("webcam", webcam, 1280, 720, 30, "image/jpeg,width=1280,height=720,framerate=30/1");
+        expect("webcam", webcam, 1280, 720, 10, "video/x-raw,format=YUY2,width=1280,height=720,framerate=10/1");
+        // Nothing covers 4K, the largest size at the requested rate comes closest.
+        expect("webcam", webcam, 3840, 2160, 30, "image/jpeg,width=1920,height=1080,framerate=30/1");
+        expect("capture card", card, 160, 120, 30, "video/x-raw,format=NV12,width=1920,height=1080,framerate=30000/1001");
+        expect("scalable", scalable, 160, 120, 30, "video/x-raw,format=BGRx,width=160,height=120,framerate=30/1");
+
+        if (args.length > 0 && args[0].equals("--gst")) {
+            GSTBase.ensureGstInitialized("GSTCaptureModeCheck");
+            String standIn = "videotestsrc ! capsfilter caps=\"video/x-raw,format=YUY2,width=1920,height=1080,framerate=5/1;"
+                    + "video/x-raw,format=YUY2,width=640,height=480,framerate=30/1;"
+                    + "video/x-raw,format=YUY2,width=320,height=240,framerate=30/1\"";
+            List<GSTCaptureMode> probed = GSTAutoVideo.probeCaptureModes(standIn);
+            System.out.println("videotestsrc stand-in modes: " + probed);
+            expect("stand-in", probed, 160, 120, 30, "video/x-raw,format=YUY2,width=320,height=240,framerate=30/1");
+            expect("stand-in", probed, 1280, 720, 5, "video/x-raw,format=YUY2,width=1920,height=1080,framerate=5/1");
+        }
+
+        System.out.println(failures == 0 ? "All choices as expected" : failures + " choice(s) differ");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,169 @@
+package xyz.theforks.chromatikgst;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.Set;
+
+/**
+ * Java Flight Recorder events for the GStreamer pipeline lifecycle, so stutters can be lined up with GC
+ * and LX engine timing in the same recording.  All events are disabled by default.  A disabled event
+ * costs a shouldCommit() check that the JIT reduces to nothing, so the calls can stay in production.
+ * Enable them in a .jfc settings file or on the command line, e.g.
+ *
+ * -XX:StartFlightRecording:filename=show.jfr,+chromatikgst.Render#enabled=true,+chromatikgst.Sample#enabled=true
+ */
+public final class GSTEvents {
+
+    static private final String CATEGORY = "ChromatikGST";
+
+    private GSTEvents() {
+    }
+
+    @Name("chromatikgst.Sample")
+    @Label("GST Sample")
+    @Description("A frame delivered by the appsink to ChromatikSink")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static public class SampleEvent extends Event {
+        @Label("Pipeline")
+        public String pipeline;
+        @Label("Width")
+        public int width;
+        @Label("Height")
+        public int height;
+        @Label("Presentation Timestamp")
+        @Timespan(Timespan.NANOSECONDS)
+        public long pts;
+        @Label("Preroll")
+        public boolean preroll;
+    }
+
+    @Name("chromatikgst.Render")
+    @Label("GST Render")
+    @Description("One GSTBase.run, from frame pickup to the colors being written")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static public class RenderEvent extends Event {
+        @Label("Pipeline")
+        public String pipeline;
+        @Label("Frame Sequence")
+        public long frameSequence;
+        @Label("Mode")
+        @Description("full, partial, skipped, throttled or none")
+        public String mode;
+    }
+
+    @Name("chromatikgst.Seek")
+    @Label("GST Seek")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static public class SeekEvent extends Event {
+        @Label("Pipeline")
+        public String pipeline;
+        @Label("Rate")
+        public double rate;
+        @Label("Position")
+        @Timespan(Timespan.NANOSECONDS)
+        public long position;
+        @Label("Flags")
+        public String flags;
+        @Label("Accepted")
+        public boolean accepted;
+    }
+
+    @Name("chromatikgst.StateChange")
+    @Label("GST State Change")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static public class StateChangeEvent extends Event {
+        @Label("Pipeline")
+        public String pipeline;
+        @Label("State")
+        public String state;
+    }
+
+    @Name("chromatikgst.Caps")
+    @Label("GST Caps Renegotiation")
+    @Description("The frame size arriving at ChromatikSink changed")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static public class CapsEvent extends Event {
+        @Label("Pipeline")
+        public String pipeline;
+        @Label("Width")
+        public int width;
+        @Label("Height")
+        public int height;
+    }
+
+    @Name("chromatikgst.BusMessage")
+    @Label("GST Bus Message")
+    @Description("ERROR and SEGMENT_DONE messages from the pipeline bus")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static public class BusMessageEvent extends Event {
+        @Label("Pipeline")
+        public String pipeline;
+        @Label("Type")
+        public String type;
+        @Label("Source")
+        public String source;
+        @Label("Message")
+        public String message;
+    }
+
+    static public void seek(String pipeline, double rate, long position, Set<?> flags, boolean accepted) {
+        SeekEvent event = new SeekEvent();
+        if (event.shouldCommit()) {
+            event.pipeline = pipeline;
+            event.rate = rate;
+            event.position = position;
+            event.flags = flags.toString();
+            event.accepted = accepted;
+            event.commit();
+        }
+    }
+
+    static public void stateChange(String pipeline, String state) {
+        StateChangeEvent event = new StateChangeEvent();
+        if (event.shouldCommit()) {
+            event.pipeline = pipeline;
+            event.state = state;
+            event.commit();
+        }
+    }
+
+    static public void caps(String pipeline, int width, int height) {
+        CapsEvent event = new CapsEvent();
+        if (event.shouldCommit()) {
+            event.pipeline = pipeline;
+            event.width = width;
+            event.height = height;
+            event.commit();
+        }
+    }
+
+    static public void busMessage(String pipeline, String type, String source, String message) {
+        BusMessageEvent event = new BusMessageEvent();
+        if (event.shouldCommit()) {
+            event.pipeline = pipeline;
+            event.type = type;
+            event.source = source;
+            event.message = message;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decoded cue frames, i.e. the first frame a GSTVideo shows after a sync restart, keyed by file, file
+ * version, output caps and cue position.  Kept in a small in-memory LRU and in ChromatikGST/FrameCache so
+ * that even the first activation after startup can show the frame before the pipeline has been built and
+ * pre-rolled.  Each file holds the full key followed by the frame as a PNG, the key is checked on read so a
+ * file name collision is a miss.  The directory keeps the MAX_CACHE_FILES most recently used files.
+ *
+ * The files are read and written on a background thread, get() only looks in memory so it is safe to call
+ * from the engine and streaming threads.
+ */
+public class GSTFrameCache {
+
+    static private final int MAGIC = 0x43474643;
+    static private final int VERSION = 1;
+    static private final int MAX_FRAMES = 64;
+    static private final int MAX_CACHE_FILES = 256;
+
+    static private final Map<String, BufferedImage> frames = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+            return size() > MAX_FRAMES;
+        }
+    };
+
+    static private final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ChromatikGST-framecache");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static public String key(File file, int width, int height, long positionNanos) {
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified() + "|" + width + "x" + height
+                + "|" + positionNanos;
+    }
+
+    static private File cacheFile(LX lx, String key) {
+        return new File(GSTUtil.getPackageDir(lx) + "FrameCache" + File.separator
+                + Integer.toHexString(key.hashCode()) + "-" + Integer.toHexString(key.length()) + ".frame");
+    }
+
+    /**
+     * @return The frame if it is in memory, otherwise null.
+     */
+    static public BufferedImage get(String key) {
+        synchronized (frames) {
+            return frames.get(key);
+        }
+    }
+
+    /**
+     * Reads a frame from the disk cache into memory on the background thread.
+     * @return Completes with the frame, or null if it isn't cached.
+     */
+    static public CompletableFuture<BufferedImage> load(LX lx, String key) {
+        return CompletableFuture.supplyAsync(() -> {
+            BufferedImage image = get(key);
+            return (image != null) ? image : read(lx, key);
+        }, io);
+    }
+
+    static private BufferedImage read(LX lx, String key) {
+        File file = cacheFile(lx, key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            BufferedImage loaded = ImageIO.read(in);
+            if (loaded == null) {
+                return null;
+            }
+            // The modification time orders the files for prune().
+            file.setLastModified(System.currentTimeMillis());
+            // Normalize to the same layout ChromatikSink produces.
+            BufferedImage image = new BufferedImage(loaded.getWidth(), loaded.getHeight(), BufferedImage.TYPE_INT_RGB);
+            image.getGraphics().drawImage(loaded, 0, 0, null);
+            synchronized (frames) {
+                frames.put(key, image);
+            }
+            GSTMetrics.increment("frameCache.diskHits");
+            return image;
+        } catch (IOException e) {
+            LX.log("Error reading cached frame " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the frame in memory and queues the disk write.
+     * @param image A newly allocated image that nothing will modify.
+     */
+    static public void put(LX lx, String key, BufferedImage image) {
+        synchronized (frames) {
+            frames.put(key, image);
+        }
+        io.execute(() -> write(lx, key, image));
+    }
+
+    static private void write(LX lx, String key, BufferedImage image) {
+        File file = cacheFile(lx, key);
+        if (hasKey(file, key)) {
+            file.setLastModified(System.currentTimeMillis());
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(key);
+                ImageIO.write(image, "png", out);
+            }
+            // A file with another key under the same name is replaced.
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            LX.log("Error writing cached frame " + file + ": " + e.getMessage());
+            tmp.delete();
+        }
+        prune(file.getParentFile());
+    }
+
+    static private boolean hasKey(File file, String key) {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION && key.equals(in.readUTF());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the least recently used files beyond MAX_CACHE_FILES.  Only called on the io thread.
+     */
+    static private void prune(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".frame") || name.endsWith(".png"));
+        if (files == null || files.length <= MAX_CACHE_FILES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - MAX_CACHE_FILES; i++) {
+            if (files[i].delete()) {
+                GSTMetrics.increment("frameCache.evictions");
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXCategory;
+import heronarts.lx.LXComponentName;
+import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.CompoundParameter;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.EnumParameter;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.StringParameter;
+import org.freedesktop.gstreamer.Pipeline;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays pre-rendered frames without an encode and decode round trip.  The path is either a directory of
+ * images, played in file name order, or a headerless raw video file (.rgb, .bgr, .rgba, .bgra or .raw)
+ * that is memory mapped and read by frame number.  The frame shown is derived from the elapsed time and
+ * the FPS knob rather than counted per engine frame, so playback holds the exact rate regardless of the
+ * engine frame rate, and the Position knob, or a modulator on it, seeks to any frame.
+ * Relative paths are resolved against ~/Chromatik/ChromatikGST/.
+ *
+ * Images are decoded on a background thread, PREFETCH_FRAMES ahead of the playhead.  After a seek, or when
+ * the decoder falls behind, the last frame stays up until the one due has been decoded.
+ */
+@LXCategory("Custom")
+@LXComponentName("GSTFrameSequence")
+public class GSTFrameSequence extends GSTBase {
+
+    static private final long REOPEN_INTERVAL_NANOS = 1_000_000_000L;
+    static private final String[] IMAGE_EXTENSIONS = {".png", ".jpg", ".jpeg", ".bmp", ".gif"};
+    static private final int PREFETCH_FRAMES = 8;
+
+    public final StringParameter path =
+            new StringParameter("Path", "FrameSequence")
+                    .setDescription("Directory of frame images or a raw video file");
+
+    public final EnumParameter<RawFrameFile.Format> rawFormat =
+            new EnumParameter<RawFrameFile.Format>("Format", RawFrameFile.Format.RGB)
+                    .setDescription("Pixel layout of a .raw file, other raw extensions imply their format");
+
+    public final DiscreteParameter rawWidth =
+            new DiscreteParameter("RawW", 468, 1, 4097)
+                    .setDescription("Frame width of a raw file");
+
+    public final DiscreteParameter rawHeight =
+            new DiscreteParameter("RawH", 4, 1, 4097)
+                    .setDescription("Frame height of a raw file");
+
+    public final CompoundParameter fps =
+            new CompoundParameter("FPS", 30, 1, 120)
+                    .setDescription("Playback rate in frames per second");
+
+    public final BooleanParameter play =
+            new BooleanParameter("Play", true)
+                    .setDescription("Advance through the frames, otherwise hold the current frame");
+
+    public final BooleanParameter loop =
+            new BooleanParameter("Loop", true)
+                    .setDescription("Start over after the last frame, otherwise hold it");
+
+    public final BooleanParameter sync =
+            new BooleanParameter("Sync", true)
+                    .setDescription("Return to Position each time the pattern becomes active");
+
+    public final CompoundParameter position =
+            new CompoundParameter("Position", 0, 0, 1)
+                    .setDescription("Seek to this point in the sequence when changed or modulated");
+
+    protected File[] imageFiles;
+    protected RawFrameFile rawFile;
+    protected int frameCount = 0;
+    protected boolean sourceChanged = true;
+    protected long lastOpenAttemptNanos = 0;
+    // Playback position in frames.  Advanced by fps each run, so an fps change changes the speed
+    // without moving the position.
+    protected double playhead = 0;
+    protected int currentFrame = -1;
+    protected double lastPosition = -1;
+
+    // Decoding an image is the one expensive step, the frames ahead are decoded on this thread.
+    static private final ExecutorService imageLoader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ChromatikGST-frames");
+        t.setDaemon(true);
+        return t;
+    });
+    // Decoded and pending images by frame number, only touched from the engine thread.
+    protected final Map<Integer, CompletableFuture<BufferedImage>> prefetch = new HashMap<>();
+
+    public GSTFrameSequence(LX lx) {
+        super(lx);
+        addParameter("path", path);
+        addParameter("rawFormat", rawFormat);
+        addParameter("rawWidth", rawWidth);
+        addParameter("rawHeight", rawHeight);
+        addParameter("fps", fps);
+        addParameter("play", play);
+        addParameter("loop", loop);
+        addParameter("sync", sync);
+        addParameter("position", position);
+    }
+
+    @Override
+    protected String getPipelineName() {
+        return "GSTFrameSequence";
+    }
+
+    @Override
+    protected Pipeline initializePipeline() {
+        return null;
+    }
+
+    @Override
+    protected boolean hasFrameSource() {
+        return frameCount > 0;
+    }
+
+    protected File getSourceFile() {
+        String filename = path.getString();
+        if (!filename.contains(File.separator)) {
+            filename = GSTUtil.getPackageDir(lx) + filename;
+        }
+        return new File(filename);
+    }
+
+    static protected boolean isImageFile(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The raw format implied by the file extension, or null if this isn't a raw file.
+     */
+    protected RawFrameFile.Format getRawFormat(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".raw")) return rawFormat.getEnum();
+        if (name.endsWith(".rgb")) return RawFrameFile.Format.RGB;
+        if (name.endsWith(".bgr")) return RawFrameFile.Format.BGR;
+        if (name.endsWith(".rgba")) return RawFrameFile.Format.RGBA;
+        if (name.endsWith(".bgra")) return RawFrameFile.Format.BGRA;
+        return null;
+    }
+
+    protected void closeSource() {
+        if (rawFile != null) {
+            try {
+                rawFile.close();
+            } catch (IOException e) {
+                LX.log("Error closing raw frame file: " + e.getMessage());
+            }
+        }
+        rawFile = null;
+        imageFiles = null;
+        frameCount = 0;
+        currentFrame = -1;
+        for (CompletableFuture<BufferedImage> pending : prefetch.values()) {
+            pending.cancel(false);
+        }
+        prefetch.clear();
+    }
+
+    protected void openSource() {
+        sourceChanged = false;
+        lastOpenAttemptNanos = System.nanoTime();
+        closeSource();
+        File file = getSourceFile();
+        if (file.isDirectory()) {
+            File[] files = file.listFiles((dir, name) -> isImageFile(name));
+            if (files == null || files.length == 0) {
+                if (GSTUtil.VERBOSE) LX.log("No frame images in " + file);
+                return;
+            }
+            Arrays.sort(files);
+            imageFiles = files;
+            frameCount = files.length;
+        } else if (file.isFile() && getRawFormat(file) != null) {
+            try {
+                rawFile = new RawFrameFile(file, rawWidth.getValuei(), rawHeight.getValuei(), getRawFormat(file));
+                frameCount = rawFile.getFrameCount();
+            } catch (IOException e) {
+                LX.error(e, "Unable to open raw frame file " + file);
+                return;
+            }
+        } else {
+            if (GSTUtil.VERBOSE) LX.log("Frame sequence not found: " + file);
+            return;
+        }
+        if (GSTUtil.VERBOSE) LX.log("Opened frame sequence " + file + " with " + frameCount + " frames");
+    }
+
+    protected void seek(double normalized) {
+        playhead = normalized * frameCount;
+    }
+
+    @Override
+    public void onParameterChanged(LXParameter p) {
+        super.onParameterChanged(p);
+        if (p == path || p == rawFormat || p == rawWidth || p == rawHeight) {
+            // Reopened from the engine thread so a mapped file is never closed mid-read.
+            sourceChanged = true;
+        }
+    }
+
+    @Override
+    protected void onActive() {
+        if (sync.isOn()) {
+            seek(position.getValue());
+        }
+    }
+
+    @Override
+    protected void onInactive() {
+        // Nothing to pause, playback only advances in run.
+    }
+
+    protected BufferedImage loadImage(File file) {
+        try {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                LX.log("Unreadable frame image " + file);
+                return null;
+            }
+            if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+                BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+                rgb.getGraphics().drawImage(image, 0, 0, null);
+                image = rgb;
+            }
+            return image;
+        } catch (IOException e) {
+            LX.log("Error reading frame image " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return The frame, completed right away for a raw file, or the pending decode of an image that is
+     * completed with null if it can't be read.  Also starts decoding the images after it.
+     */
+    protected CompletableFuture<BufferedImage> readFrame(int frame) {
+        if (rawFile != null) {
+            BufferedImage image = new BufferedImage(rawFile.getWidth(), rawFile.getHeight(), BufferedImage.TYPE_INT_RGB);
+            try {
+                rawFile.read(frame, ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+            } catch (IOException e) {
+                LX.log("Error reading raw frame " + frame + ": " + e.getMessage());
+                return CompletableFuture.completedFuture(null);
+            }
+            return CompletableFuture.completedFuture(image);
+        }
+        // Forget decodes that fell out of the window, those not started yet are skipped by cancel().
+        Iterator<Map.Entry<Integer, CompletableFuture<BufferedImage>>> it = prefetch.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, CompletableFuture<BufferedImage>> entry = it.next();
+            if (Math.floorMod(entry.getKey() - frame, frameCount) > PREFETCH_FRAMES) {
+                entry.getValue().cancel(false);
+                it.remove();
+            }
+        }
+        for (int i = 0; i <= Math.min(PREFETCH_FRAMES, frameCount - 1); i++) {
+            int ahead = (frame + i) % frameCount;
+            if (!prefetch.containsKey(ahead)) {
+                File file = imageFiles[ahead];
+                prefetch.put(ahead, CompletableFuture.supplyAsync(() -> loadImage(file), imageLoader));
+            }
+        }
+        return prefetch.get(frame);
+    }
+
+    @Override
+    protected void run(double deltaMs) {
+        // The frames may be rendered after the pattern is added.
+        if (sourceChanged || (frameCount == 0 && System.nanoTime() - lastOpenAttemptNanos > REOPEN_INTERVAL_NANOS)) {
+            openSource();
+        }
+        if (frameCount == 0) {
+            return;
+        }
+        if (position.getValue() != lastPosition) {
+            lastPosition = position.getValue();
+            seek(lastPosition);
+        } else if (play.isOn()) {
+            playhead += deltaMs * fps.getValue() / 1000.0;
+        }
+        if (playhead >= frameCount) {
+            playhead = loop.isOn() ? playhead % frameCount : frameCount;
+        }
+        int frame = Math.min(frameCount - 1, (int) Math.floor(playhead + 1e-6));
+        if (frame != currentFrame) {
+            CompletableFuture<BufferedImage> next = readFrame(frame);
+            if (next.isDone()) {
+                currentFrame = frame;
+                BufferedImage image = next.getNow(null);
+                if (image != null) {
+                    chromatikSink.setFrame(image);
+                    GSTMetrics.increment(getPipelineName() + ".frames");
+                }
+            } else {
+                // Keep showing the last frame until this one is decoded.
+                GSTMetrics.increment(getPipelineName() + ".framesPending");
+            }
+        }
+        super.run(deltaMs);
+    }
+
+    @Override
+    public void dispose() {
+        closeSource();
+        super.dispose();
+    }
+}
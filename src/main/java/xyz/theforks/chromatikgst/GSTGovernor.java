@@ -0,0 +1,143 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXLoopTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Trades GST video quality for engine frame rate.  Runs as an engine loop task, tracks the smoothed engine
+ * frame time against the budget from the engine's target frame rate, and when the engine falls behind
+ * steps the costliest running GST pattern down one quality level, see GSTBase.setQualityLevel().  Once
+ * the engine has had headroom for a while the most degraded pattern is stepped back up.  Steps are one at
+ * a time with a settle period in between so the effect of each can be measured.
+ *
+ * Levels: 0 full quality, 1 decode rate capped with videorate, 2 half caps resolution, 3 sampling on every
+ * other engine frame.
+ *
+ * Disable with -Dchromatikgst.governor=false.
+ */
+public class GSTGovernor implements LXLoopTask {
+
+    static public final int MAX_LEVEL = 3;
+    static public final boolean ENABLED = !"false".equals(System.getProperty("chromatikgst.governor"));
+
+    // Over budget by this factor counts as pressure, under it by the second as headroom.
+    static private final double PRESSURE_RATIO = 1.15;
+    static private final double HEADROOM_RATIO = 1.05;
+    static private final long SETTLE_MS = 1000;
+    static private final long RESTORE_HOLD_MS = 5000;
+    // Patterns that haven't run for this long are inactive and left alone.
+    static private final long RUNNING_NANOS = 250_000_000L;
+
+    static private GSTGovernor instance;
+
+    private final LX lx;
+    private final List<GSTBase> patterns = new CopyOnWriteArrayList<>();
+    private double frameMs = 0;
+    private long lastStepMillis = 0;
+    private long headroomSinceMillis = 0;
+
+    private GSTGovernor(LX lx) {
+        this.lx = lx;
+    }
+
+    /**
+     * @return The governor, added to the engine on first use.
+     */
+    static public synchronized GSTGovernor get(LX lx) {
+        if (instance == null) {
+            instance = new GSTGovernor(lx);
+            lx.engine.addLoopTask(instance);
+        }
+        return instance;
+    }
+
+    public void register(GSTBase pattern) {
+        patterns.add(pattern);
+    }
+
+    public void unregister(GSTBase pattern) {
+        patterns.remove(pattern);
+    }
+
+    protected double getBudgetMs() {
+        double fps = lx.engine.framesPerSecond.getValue();
+        return fps > 0 ? 1000.0 / fps : 1000.0 / 60.0;
+    }
+
+    @Override
+    public void loop(double deltaMs) {
+        frameMs = (frameMs == 0) ? deltaMs : frameMs + 0.05 * (deltaMs - frameMs);
+        GSTMetrics.set("governor.frameUs", (long) (frameMs * 1000));
+        if (!ENABLED) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        double budget = getBudgetMs();
+        if (frameMs < budget * HEADROOM_RATIO) {
+            if (headroomSinceMillis == 0) {
+                headroomSinceMillis = now;
+            }
+        } else {
+            headroomSinceMillis = 0;
+        }
+        if (now - lastStepMillis < SETTLE_MS) {
+            return;
+        }
+        List<GSTBase> running = getRunning();
+        if (frameMs > budget * PRESSURE_RATIO) {
+            GSTBase costliest = null;
+            for (GSTBase pattern : running) {
+                if (pattern.getQualityLevel() < MAX_LEVEL
+                        && (costliest == null || pattern.getCostNanos() > costliest.getCostNanos())) {
+                    costliest = pattern;
+                }
+            }
+            if (costliest != null) {
+                step(costliest, costliest.getQualityLevel() + 1, now);
+                GSTMetrics.increment("governor.stepDowns");
+            }
+        } else if (headroomSinceMillis != 0 && now - headroomSinceMillis > RESTORE_HOLD_MS) {
+            GSTBase degraded = null;
+            for (GSTBase pattern : running) {
+                if (pattern.getQualityLevel() > 0
+                        && (degraded == null || pattern.getQualityLevel() > degraded.getQualityLevel())) {
+                    degraded = pattern;
+                }
+            }
+            if (degraded != null) {
+                step(degraded, degraded.getQualityLevel() - 1, now);
+                GSTMetrics.increment("governor.stepUps");
+                // Require fresh headroom before the next step up.
+                headroomSinceMillis = now;
+            }
+        }
+    }
+
+    private List<GSTBase> getRunning() {
+        long now = System.nanoTime();
+        List<GSTBase> running = new ArrayList<>();
+        for (GSTBase pattern : patterns) {
+            if (now - pattern.getLastRunNanos() < RUNNING_NANOS) {
+                running.add(pattern);
+            }
+        }
+        return running;
+    }
+
+    private void step(GSTBase pattern, int level, long now) {
+        if (GSTUtil.VERBOSE) LX.log("Governor: " + pattern.getPipelineName() + " quality level " + level
+                + ", engine frame " + String.format("%.1f", frameMs) + "ms of " + String.format("%.1f", getBudgetMs()) + "ms");
+        pattern.setQualityLevel(level);
+        lastStepMillis = now;
+        int total = 0;
+        for (GSTBase p : patterns) {
+            total += p.getQualityLevel();
+        }
+        GSTMetrics.set("governor.levels", total);
+        GSTMetrics.set("governor." + pattern.getPipelineName() + ".level", level);
+    }
+}
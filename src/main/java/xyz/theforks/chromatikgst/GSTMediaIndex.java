@@ -0,0 +1,335 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import org.freedesktop.gstreamer.*;
+import org.freedesktop.gstreamer.elements.PlayBin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background index of video file metadata: resolution, framerate, duration and codecs.  Each file is
+ * pre-rolled once in a PlayBin with fakesinks on the indexer thread and the results are cached in
+ * ChromatikGST/media-index.tsv, keyed by path, size and modification time, so later runs and the UI get
+ * the metadata without touching GStreamer.
+ */
+public class GSTMediaIndex {
+
+    static public final String INDEX_FILE = "media-index.tsv";
+    static private final long PREROLL_TIMEOUT_MS = 10000;
+
+    static public class MediaInfo {
+        public final String path;
+        public final long size;
+        public final long lastModified;
+        public final int width;
+        public final int height;
+        public final int fpsNumerator;
+        public final int fpsDenominator;
+        // -1 if unknown, e.g. the file could not be pre-rolled.
+        public final long durationNanos;
+        public final String videoCodec;
+        public final String audioCodec;
+        // Number of audio streams playbin found, -1 if unknown.  Not every demuxer posts an audio-codec tag.
+        public final int audioStreams;
+
+        MediaInfo(String path, long size, long lastModified, int width, int height, int fpsNumerator,
+                  int fpsDenominator, long durationNanos, String videoCodec, String audioCodec, int audioStreams) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.width = width;
+            this.height = height;
+            this.fpsNumerator = fpsNumerator;
+            this.fpsDenominator = fpsDenominator;
+            this.durationNanos = durationNanos;
+            this.videoCodec = videoCodec;
+            this.audioCodec = audioCodec;
+            this.audioStreams = audioStreams;
+        }
+
+        public boolean isCurrent(File file) {
+            return file.length() == size && file.lastModified() == lastModified;
+        }
+
+        public boolean hasAudio() {
+            return audioStreams != 0;
+        }
+
+        public double getFramesPerSecond() {
+            return fpsDenominator > 0 ? (double) fpsNumerator / fpsDenominator : 0;
+        }
+
+        /**
+         * @return A short description for the UI, e.g. "1920x1080 30fps 1:05 H.264".
+         */
+        public String getSummary() {
+            if (durationNanos < 0 && width == 0) {
+                return "Unreadable";
+            }
+            StringBuilder sb = new StringBuilder();
+            if (width > 0) {
+                sb.append(width).append('x').append(height).append(' ');
+            }
+            if (fpsDenominator > 0) {
+                sb.append(Math.round(getFramesPerSecond() * 100) / 100.0).append("fps ");
+            }
+            if (durationNanos >= 0) {
+                long seconds = durationNanos / 1_000_000_000L;
+                sb.append(seconds / 60).append(':').append(String.format("%02d", seconds % 60)).append(' ');
+            }
+            sb.append(videoCodec);
+            return sb.toString().trim();
+        }
+
+        String toLine() {
+            return path + "\t" + size + "\t" + lastModified + "\t" + width + "\t" + height + "\t" + fpsNumerator
+                    + "\t" + fpsDenominator + "\t" + durationNanos + "\t" + videoCodec + "\t" + audioCodec
+                    + "\t" + audioStreams;
+        }
+
+        static MediaInfo fromLine(String line) {
+            String[] f = line.split("\t", -1);
+            // Lines from before audioStreams was added are dropped, which re-indexes the file.
+            if (f.length != 11) {
+                return null;
+            }
+            try {
+                return new MediaInfo(f[0], Long.parseLong(f[1]), Long.parseLong(f[2]), Integer.parseInt(f[3]),
+                        Integer.parseInt(f[4]), Integer.parseInt(f[5]), Integer.parseInt(f[6]),
+                        Long.parseLong(f[7]), f[8], f[9], Integer.parseInt(f[10]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the indexer thread whenever a file has been indexed.
+         */
+        void onIndexed(MediaInfo info);
+    }
+
+    static private GSTMediaIndex instance = null;
+
+    /**
+     * @return The shared index, loading the cache and starting the indexer thread the first time.
+     */
+    static public synchronized GSTMediaIndex get(LX lx) {
+        if (instance == null) {
+            instance = new GSTMediaIndex(lx);
+            instance.start();
+        }
+        return instance;
+    }
+
+    private final LX lx;
+    private final File indexFile;
+    private final Map<String, MediaInfo> entries = new ConcurrentHashMap<>();
+    private final Set<File> pending = new LinkedHashSet<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private GSTMediaIndex(LX lx) {
+        this.lx = lx;
+        File packageDir = new File(GSTUtil.getPackageDir(lx));
+        packageDir.mkdirs();
+        this.indexFile = new File(packageDir, INDEX_FILE);
+        load();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return The cached metadata for a file if it is still current.  Otherwise returns null and queues
+     * the file for indexing, listeners are notified when it is done.
+     */
+    public MediaInfo get(File file) {
+        MediaInfo info = entries.get(file.getAbsolutePath());
+        if (info != null && info.isCurrent(file)) {
+            return info;
+        }
+        if (file.isFile()) {
+            request(file);
+        }
+        return null;
+    }
+
+    public void request(File file) {
+        synchronized (pending) {
+            pending.add(file.getAbsoluteFile());
+            pending.notifyAll();
+        }
+    }
+
+    private void start() {
+        Thread thread = new Thread(this::indexLoop, "ChromatikGST-index");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void indexLoop() {
+        // Wait for the bundled videos so they are indexed on the first run too.
+        GSTUtil.awaitDefaultVideos(lx, 60000);
+        File[] files = new File(GSTUtil.getVideoDir(lx)).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !file.isHidden() && !file.getName().startsWith(".") && !file.getName().endsWith(".tmp")) {
+                    get(file);
+                }
+            }
+        }
+        try {
+            while (true) {
+                List<File> batch;
+                synchronized (pending) {
+                    while (pending.isEmpty()) {
+                        pending.wait();
+                    }
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                }
+                boolean changed = false;
+                for (File file : batch) {
+                    MediaInfo cached = entries.get(file.getPath());
+                    if (cached != null && cached.isCurrent(file)) {
+                        continue;
+                    }
+                    MediaInfo info = discover(file);
+                    entries.put(file.getPath(), info);
+                    changed = true;
+                    for (Listener listener : listeners) {
+                        listener.onIndexed(info);
+                    }
+                }
+                if (changed) {
+                    save();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Pre-rolls the file into fakesinks and reads the negotiated caps, duration, audio stream count and codec
+     * tags.  Tag messages are posted before ASYNC_DONE and the bus delivers messages in order, so by the
+     * time the latch is released the codecs have been seen.
+     */
+    protected MediaInfo discover(File file) {
+        long startNanos = System.nanoTime();
+        GSTBase.ensureGstInitialized("GSTMediaIndex");
+        PlayBin playbin = new PlayBin("media-index");
+        Element videoSink = ElementFactory.make("fakesink", "index-video");
+        Element audioSink = ElementFactory.make("fakesink", "index-audio");
+        playbin.setVideoSink(videoSink);
+        playbin.setAudioSink(audioSink);
+        playbin.setURI(file.toURI());
+
+        final String[] codecs = { "", "" };
+        final CountDownLatch prerolled = new CountDownLatch(1);
+        Bus bus = playbin.getBus();
+        bus.connect((Bus.TAG) (source, tagList) -> {
+            List<Object> video = tagList.getValues("video-codec");
+            if (!video.isEmpty()) codecs[0] = sanitize(video.get(0).toString());
+            List<Object> audio = tagList.getValues("audio-codec");
+            if (!audio.isEmpty()) codecs[1] = sanitize(audio.get(0).toString());
+        });
+        bus.connect((Bus.ASYNC_DONE) (source) -> prerolled.countDown());
+        bus.connect((Bus.ERROR) (source, code, message) -> {
+            if (GSTUtil.VERBOSE) LX.log("Unable to index " + file + ": " + message);
+            prerolled.countDown();
+        });
+
+        int width = 0, height = 0, fpsNum = 0, fpsDen = 0, audioStreams = -1;
+        long duration = -1;
+        try {
+            playbin.pause();
+            if (prerolled.await(PREROLL_TIMEOUT_MS, TimeUnit.MILLISECONDS) && playbin.getState(0) == State.PAUSED) {
+                duration = playbin.queryDuration(Format.TIME);
+                Object nAudio = playbin.get("n-audio");
+                if (nAudio instanceof Number) {
+                    audioStreams = ((Number) nAudio).intValue();
+                }
+                Caps caps = videoSink.getStaticPad("sink").getCurrentCaps();
+                if (caps != null && caps.size() > 0) {
+                    Structure s = caps.getStructure(0);
+                    width = s.getInteger("width");
+                    height = s.getInteger("height");
+                    if (s.hasField("framerate")) {
+                        Fraction fps = s.getFraction("framerate");
+                        fpsNum = fps.getNumerator();
+                        fpsDen = fps.getDenominator();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LX.log("Error indexing " + file + ": " + e.getMessage());
+        } finally {
+            playbin.stop();
+            playbin.dispose();
+        }
+        GSTMetrics.increment("index.files");
+        GSTMetrics.add("index.nanos", System.nanoTime() - startNanos);
+        return new MediaInfo(file.getPath(), file.length(), file.lastModified(), width, height, fpsNum, fpsDen,
+                duration, codecs[0], codecs[1], audioStreams);
+    }
+
+    static private String sanitize(String s) {
+        return s.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(indexFile.toPath())) {
+                MediaInfo info = MediaInfo.fromLine(line);
+                if (info != null) {
+                    entries.put(info.path, info);
+                }
+            }
+        } catch (IOException e) {
+            LX.log("Error reading media index: " + e.getMessage());
+        }
+    }
+
+    private void save() {
+        List<String> lines = new ArrayList<>();
+        for (MediaInfo info : new TreeMap<>(entries).values()) {
+            // Drop entries for files that no longer exist.
+            if (new File(info.path).exists()) {
+                lines.add(info.toLine());
+            }
+        }
+        try {
+            File tmp = new File(indexFile.getPath() + ".tmp");
+            Files.write(tmp.toPath(), lines);
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LX.log("Error writing media index: " + e.getMessage());
+        }
+    }
+}
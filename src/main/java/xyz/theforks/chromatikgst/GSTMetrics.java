@@ -0,0 +1,52 @@
+package xyz.theforks.chromatikgst;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters and gauges for the ChromatikGST pipelines.  Values are keyed by name, typically
+ * prefixed with the pipeline name, i.e. "GSTVideo.samples".  These are cheap enough to update from the
+ * GStreamer streaming threads and are read by the soak harness and for logging.
+ */
+public class GSTMetrics {
+
+    static private final Map<String, AtomicLong> values = new ConcurrentHashMap<>();
+
+    static private AtomicLong value(String name) {
+        return values.computeIfAbsent(name, (k) -> new AtomicLong());
+    }
+
+    static public void increment(String name) {
+        value(name).incrementAndGet();
+    }
+
+    static public void decrement(String name) {
+        value(name).decrementAndGet();
+    }
+
+    static public void add(String name, long delta) {
+        value(name).addAndGet(delta);
+    }
+
+    static public void set(String name, long v) {
+        value(name).set(v);
+    }
+
+    static public long get(String name) {
+        AtomicLong v = values.get(name);
+        return v == null ? 0 : v.get();
+    }
+
+    /**
+     * @return A sorted copy of the current values.
+     */
+    static public Map<String, Long> snapshot() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : values.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,157 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXCategory;
+import heronarts.lx.LXComponentName;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.StringParameter;
+import org.freedesktop.gstreamer.Pipeline;
+
+import java.io.File;
+
+/**
+ * Plays one clip out of a mosaic video, a video with many clips tiled in a Columns x Rows grid.  All
+ * GSTMosaic patterns playing the same file at the same Width and Height share a single decoder, see
+ * GSTMosaicDecoder, and each one samples just its tile.  Tiles are numbered left to right, top to bottom.
+ * A mosaic can be built with ffmpeg's xstack filter, e.g. for a 2x2 grid:
+ *
+ * ffmpeg -i a.mp4 -i b.mp4 -i c.mp4 -i d.mp4 -filter_complex xstack=inputs=4:layout=0_0|w0_0|0_h0|w0_h0 mosaic.mp4
+ *
+ * Since the decoder is shared, the mosaic always loops and does not restart when a pattern is activated.
+ */
+@LXCategory("Custom")
+@LXComponentName("GSTMosaic")
+public class GSTMosaic extends GSTBase {
+
+    public final StringParameter videoFile =
+            new StringParameter("video", "mosaic.mp4")
+                    .setDescription("Mosaic video file to play");
+
+    public final DiscreteParameter columns =
+            new DiscreteParameter("Cols", 4, 1, 33)
+                    .setDescription("Number of clips across the mosaic");
+
+    public final DiscreteParameter rows =
+            new DiscreteParameter("Rows", 4, 1, 33)
+                    .setDescription("Number of clips down the mosaic");
+
+    public final DiscreteParameter tile =
+            new DiscreteParameter("Tile", 0, 0, 1024)
+                    .setDescription("Clip to play, numbered left to right and top to bottom");
+
+    protected GSTMosaicDecoder decoder;
+    protected boolean decoderActive = false;
+
+    public GSTMosaic(LX lx) {
+        super(lx);
+        // A mosaic needs more pixels than a single clip.
+        widthKnob.setValue(640);
+        heightKnob.setValue(480);
+        addParameter("video", videoFile);
+        addParameter("columns", columns);
+        addParameter("rows", rows);
+        addParameter("tile", tile);
+    }
+
+    @Override
+    protected String getPipelineName() {
+        return "GSTMosaic";
+    }
+
+    @Override
+    protected Pipeline initializePipeline() {
+        return null;
+    }
+
+    /**
+     * Nothing is rendered until the shared decoder's pipeline has been built in the background.
+     */
+    @Override
+    protected boolean hasFrameSource() {
+        return decoder != null && decoder.isReady();
+    }
+
+    protected File getVideoFile() {
+        String fullPathname = videoFile.getString();
+        if (!fullPathname.contains(File.separator))
+            fullPathname = GSTUtil.getVideoDir(lx) + videoFile.getString();
+        return new File(fullPathname);
+    }
+
+    /**
+     * Folds the tile into the uv window, so the plan samples only the tile's pixels.  Flips, tiling and
+     * rotation still apply within the clip.
+     */
+    @Override
+    protected float[] getSamplingParams() {
+        float[] p = super.getSamplingParams();
+        int cols = columns.getValuei();
+        int rowCount = rows.getValuei();
+        int index = tile.getValuei() % (cols * rowCount);
+        int col = index % cols;
+        int row = index / cols;
+        p[0] = (col + p[0]) / cols;
+        p[1] = (row + p[1]) / rowCount;
+        p[2] = p[2] / cols;
+        p[3] = p[3] / rowCount;
+        return p;
+    }
+
+    protected void acquireDecoder() {
+        releaseDecoder();
+        decoder = GSTMosaicDecoder.acquire(getVideoFile(), widthKnob.getValuei(), heightKnob.getValuei());
+        chromatikSink = decoder.sink;
+    }
+
+    protected void releaseDecoder() {
+        if (decoder == null) {
+            return;
+        }
+        if (decoderActive) {
+            decoder.setActive(false);
+            decoderActive = false;
+        }
+        GSTMosaicDecoder.release(decoder);
+        decoder = null;
+        chromatikSink = new ChromatikSink();
+    }
+
+    @Override
+    public void onParameterChanged(LXParameter p) {
+        super.onParameterChanged(p);
+        if ((p == videoFile || p == widthKnob || p == heightKnob) && decoder != null) {
+            boolean wasActive = decoderActive;
+            acquireDecoder();
+            if (wasActive) {
+                decoder.setActive(true);
+                decoderActive = true;
+            }
+        }
+    }
+
+    @Override
+    protected void onActive() {
+        if (decoder == null) {
+            acquireDecoder();
+        }
+        if (!decoderActive) {
+            decoder.setActive(true);
+            decoderActive = true;
+        }
+    }
+
+    @Override
+    protected void onInactive() {
+        if (decoder != null && decoderActive) {
+            decoder.setActive(false);
+            decoderActive = false;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        releaseDecoder();
+        super.dispose();
+    }
+}
@@ -0,0 +1,179 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import org.freedesktop.gstreamer.*;
+import org.freedesktop.gstreamer.elements.AppSink;
+import org.freedesktop.gstreamer.elements.PlayBin;
+import org.freedesktop.gstreamer.event.SeekFlags;
+import org.freedesktop.gstreamer.event.SeekType;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A looping video decoded once and shared by every GSTMosaic pattern that plays the same file at the same
+ * decode size.  Decoders are reference counted, the pipeline is built after the first acquire, paused
+ * while none of its patterns are active and torn down by the last release.  Initializing GStreamer and
+ * building the pipeline happen on a background thread, like GSTBase's gstThread, isReady() tells the
+ * patterns when there is a pipeline to take frames from.
+ */
+public class GSTMosaicDecoder {
+
+    static private final Map<String, GSTMosaicDecoder> decoders = new HashMap<>();
+
+    public final String key;
+    public final File file;
+    public final int width;
+    public final int height;
+    // Frames from the shared decoder.  Patterns sample this sink instead of their own.
+    public final ChromatikSink sink = new ChromatikSink();
+
+    private PlayBin playbin;
+    private int refs = 0;
+    private int active = 0;
+    private boolean stopped = false;
+    private volatile boolean ready = false;
+
+    private GSTMosaicDecoder(String key, File file, int width, int height) {
+        this.key = key;
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        sink.pipelineName = "GSTMosaic:" + file.getName();
+    }
+
+    /**
+     * @return The shared decoder for the file and size.  If this is its first user the pipeline is started
+     * in the background.  Each acquire must be paired with a release.
+     */
+    static public GSTMosaicDecoder acquire(File file, int width, int height) {
+        String key = file.getAbsolutePath() + "|" + width + "x" + height;
+        GSTMosaicDecoder decoder;
+        boolean created = false;
+        synchronized (decoders) {
+            decoder = decoders.get(key);
+            if (decoder == null) {
+                decoder = new GSTMosaicDecoder(key, file, width, height);
+                decoders.put(key, decoder);
+                created = true;
+            }
+            decoder.refs++;
+            GSTMetrics.set("mosaic.decoders", decoders.size());
+        }
+        if (created) {
+            final GSTMosaicDecoder starting = decoder;
+            Thread thread = new Thread(starting::startIfNeeded, "ChromatikGST-mosaic");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return decoder;
+    }
+
+    /**
+     * @return True once the pipeline has been built and frames can arrive in sink.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    static public void release(GSTMosaicDecoder decoder) {
+        synchronized (decoders) {
+            if (--decoder.refs > 0) {
+                return;
+            }
+            decoders.remove(decoder.key);
+            GSTMetrics.set("mosaic.decoders", decoders.size());
+        }
+        decoder.stop();
+    }
+
+    /**
+     * Runs on the decoder's start thread.  The pipeline is built outside the lock, so setActive() never
+     * waits on the registry scan or the pipeline construction, and installed unless the decoder was released
+     * in the meantime.
+     */
+    private void startIfNeeded() {
+        GSTBase.ensureGstInitialized("GSTMosaic");
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+        }
+        PlayBin built = buildPipeline();
+        synchronized (this) {
+            if (stopped) {
+                built.setState(State.NULL);
+                built.dispose();
+                return;
+            }
+            playbin = built;
+            GSTMetrics.increment("mosaic.pipelines");
+            if (active > 0) {
+                playbin.play();
+            } else {
+                // Pre-roll so the first frame is ready when a pattern becomes active.
+                playbin.pause();
+            }
+            ready = true;
+        }
+    }
+
+    private PlayBin buildPipeline() {
+        if (GSTUtil.VERBOSE) LX.log("Starting shared mosaic decoder " + key);
+        String format = (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) ? "BGRx" : "xRGB";
+        Bin videoBin = Gst.parseBinFromDescription(
+                "videoconvert ! videoscale ! "
+                        + "capsfilter caps=video/x-raw,width=" + width + ",height=" + height + ",format=" + format + " ! "
+                        + "appsink name=mosaic-output emit-signals=true",
+                true);
+        AppSink appSink = (AppSink) videoBin.getElementByName("mosaic-output");
+        appSink.connect((AppSink.NEW_SAMPLE) sink);
+        appSink.connect((AppSink.NEW_PREROLL) sink);
+        PlayBin built = new PlayBin("mosaic-playbin");
+        built.setURI(file.toURI());
+        built.setVideoSink(videoBin);
+        built.set("audio-sink", ElementFactory.make("fakesink", "mosaic-audio-sink"));
+        built.getBus().connect((Bus.EOS) source -> {
+            boolean accepted = built.seek(1.0, Format.TIME, EnumSet.of(SeekFlags.FLUSH, SeekFlags.KEY_UNIT),
+                    SeekType.SET, 0, SeekType.NONE, -1);
+            GSTEvents.seek(sink.pipelineName, 1.0, 0, EnumSet.of(SeekFlags.FLUSH, SeekFlags.KEY_UNIT), accepted);
+        });
+        built.getBus().connect((Bus.ERROR) (source, code, message) -> {
+            LX.log("Mosaic decoder error for " + file + ": " + message);
+            GSTEvents.busMessage(sink.pipelineName, "ERROR", source.getName(), message);
+        });
+        return built;
+    }
+
+    /**
+     * Called by a pattern when it becomes active or inactive.  Decoding runs while any user is active.
+     */
+    public synchronized void setActive(boolean isActive) {
+        active = Math.max(0, active + (isActive ? 1 : -1));
+        if (playbin == null) {
+            return;
+        }
+        if (isActive && active == 1) {
+            playbin.play();
+            GSTEvents.stateChange(sink.pipelineName, "PLAYING");
+        } else if (!isActive && active == 0) {
+            playbin.pause();
+            GSTEvents.stateChange(sink.pipelineName, "PAUSED");
+        }
+    }
+
+    private synchronized void stop() {
+        stopped = true;
+        ready = false;
+        if (playbin == null) {
+            return;
+        }
+        if (GSTUtil.VERBOSE) LX.log("Stopping shared mosaic decoder " + key);
+        playbin.setState(State.NULL);
+        playbin.dispose();
+        playbin = null;
+    }
+}
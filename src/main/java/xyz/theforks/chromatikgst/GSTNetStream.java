@@ -0,0 +1,203 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXCategory;
+import heronarts.lx.LXComponentName;
+import heronarts.lx.parameter.BoundedParameter;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.EnumParameter;
+import heronarts.lx.parameter.LXParameter;
+import org.freedesktop.gstreamer.*;
+import org.freedesktop.gstreamer.elements.AppSink;
+import org.freedesktop.gstreamer.message.ErrorMessage;
+
+/**
+ * Receives a low latency video stream from another machine over RTP/UDP or SRT.  Decoded frames are
+ * passed through a leaky queue and a dropping appsink so that under load we always render the newest
+ * frame rather than falling behind.  If the stream errors, ends, or stalls after frames have been
+ * received, the pipeline is rebuilt.
+ *
+ * A loopback sender for testing RTP H.264:
+ * gst-launch-1.0 videotestsrc is-live=true ! video/x-raw,width=320,height=240,framerate=30/1 !
+ *   x264enc tune=zerolatency speed-preset=ultrafast ! rtph264pay config-interval=1 pt=96 !
+ *   udpsink host=127.0.0.1 port=5000
+ */
+@LXCategory("Custom")
+@LXComponentName("GSTNetStream")
+public class GSTNetStream extends GSTBase {
+
+    public enum Protocol {
+        RTP_H264("RTP H.264"),
+        RTP_JPEG("RTP JPEG"),
+        SRT("SRT MPEG-TS");
+
+        private final String label;
+
+        Protocol(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public final EnumParameter<Protocol> protocol =
+            new EnumParameter<Protocol>("Protocol", Protocol.RTP_H264)
+                    .setDescription("Stream transport and encoding");
+
+    public final DiscreteParameter port =
+            new DiscreteParameter("Port", 5000, 1024, 65536)
+                    .setDescription("UDP port to listen on");
+
+    public final DiscreteParameter latency =
+            new DiscreteParameter("Latency", 50, 0, 2001)
+                    .setDescription("Jitter buffer latency in milliseconds");
+
+    public final DiscreteParameter timeout =
+            new DiscreteParameter("Timeout", 2000, 250, 30001)
+                    .setDescription("Milliseconds without frames before reconnecting");
+
+    public final BoundedParameter measuredLatency =
+            new BoundedParameter("E2E", 0, 0, 1000)
+                    .setUnits(LXParameter.Units.MILLISECONDS)
+                    .setDescription("Measured latency from stream arrival to render");
+
+    protected Element jitterBuffer;
+    protected volatile boolean reconnectRequested = false;
+    protected long lastRestartNanos = 0;
+
+    public GSTNetStream(LX lx) {
+        super(lx);
+        addParameter("protocol", protocol);
+        addParameter("port", port);
+        addParameter("latency", latency);
+        addParameter("timeout", timeout);
+        addParameter("e2e", measuredLatency);
+        chromatikSink.measureLatency = true;
+    }
+
+    @Override
+    protected String getPipelineName() {
+        return "GSTNetStream";
+    }
+
+    protected String getSourceDescription() {
+        int portNum = port.getValuei();
+        int latencyMs = latency.getValuei();
+        switch (protocol.getEnum()) {
+            case RTP_JPEG:
+                return "udpsrc port=" + portNum
+                        + " caps=\"application/x-rtp,media=video,clock-rate=90000,encoding-name=JPEG,payload=26\" ! "
+                        + "rtpjitterbuffer name=jitter drop-on-latency=true latency=" + latencyMs + " ! "
+                        + "rtpjpegdepay ! jpegdec";
+            case SRT:
+                return "srtsrc uri=\"srt://:" + portNum + "?mode=listener\" latency=" + latencyMs + " ! "
+                        + "tsdemux ! h264parse ! decodebin";
+            case RTP_H264:
+            default:
+                return "udpsrc port=" + portNum
+                        + " caps=\"application/x-rtp,media=video,clock-rate=90000,encoding-name=H264,payload=96\" ! "
+                        + "rtpjitterbuffer name=jitter drop-on-latency=true latency=" + latencyMs + " ! "
+                        + "rtph264depay ! h264parse ! decodebin";
+        }
+    }
+
+    @Override
+    protected String getWorkerSource() {
+        return getSourceDescription();
+    }
+
+    @Override
+    protected Pipeline initializePipeline() {
+        // The leaky queue drops decoded frames rather than encoded ones so the decoder never loses
+        // reference frames.
+        Bin bin = Gst.parseBinFromDescription(
+                getSourceDescription() + " ! "
+                        + "queue leaky=downstream max-size-buffers=1 max-size-bytes=0 max-size-time=0 ! "
+                        + "videoconvert ! videoscale ! "
+                        + "capsfilter name=scalecaps caps=video/x-raw,width=" + getDecodeWidth() + ",height=" + getDecodeHeight(),
+                true);
+        capsFilter = bin.getElementByName("scalecaps");
+        jitterBuffer = bin.getElementByName("jitter");
+        Pipeline pipeline = new Pipeline(getPipelineName());
+        AppSink videoSink = createVideoSink();
+        videoSink.set("sync", false);
+        videoSink.set("drop", true);
+        videoSink.set("max-buffers", 1);
+        pipeline.add(bin);
+        Bin outputBin = createOutputBin(videoSink);
+        pipeline.add(outputBin);
+        bin.link(outputBin);
+        return pipeline;
+    }
+
+    @Override
+    protected void configurePipelineBus() {
+        pipeline.getBus().connect((Bus.EOS) (source) -> {
+            if (GSTUtil.VERBOSE) LX.log("End of stream, reconnecting pipeline: " + getPipelineName());
+            reconnectRequested = true;
+        });
+        super.configurePipelineBus();
+    }
+
+    @Override
+    protected void onPipelineError(ErrorMessage errMsg) {
+        // Leave the GStreamer main loop running and rebuild this pipeline from the engine thread.
+        reconnectRequested = true;
+    }
+
+    @Override
+    public void onParameterChanged(LXParameter p) {
+        super.onParameterChanged(p);
+        if (pipeline == null && worker == null) {
+            return;
+        }
+        if (p == protocol || p == port) {
+            reconnect();
+        } else if (p == latency) {
+            if (jitterBuffer != null) {
+                jitterBuffer.set("latency", latency.getValuei());
+            } else {
+                // SRT latency is negotiated when the connection is established.
+                reconnect();
+            }
+        }
+    }
+
+    protected void reconnect() {
+        reconnectRequested = false;
+        lastRestartNanos = System.nanoTime();
+        jitterBuffer = null;
+        GSTMetrics.increment(getPipelineName() + ".reconnects");
+        restartPipeline();
+    }
+
+    @Override
+    protected void preRun(double deltaMs) {
+        long now = System.nanoTime();
+        long timeoutNanos = timeout.getValuei() * 1_000_000L;
+        long lastFrameNanos;
+        synchronized (chromatikSink.frameLock) {
+            lastFrameNanos = chromatikSink.lastFrameNanos;
+        }
+        // Only treat silence as a stall if frames arrived since the last restart.  A UDP source with no
+        // sender yet just keeps listening.
+        boolean stalled = lastFrameNanos > lastRestartNanos && now - lastFrameNanos > timeoutNanos;
+        if ((reconnectRequested || stalled) && now - lastRestartNanos > timeoutNanos) {
+            if (GSTUtil.VERBOSE) LX.log("Reconnecting pipeline: " + getPipelineName());
+            reconnect();
+            return;
+        }
+
+        long pipelineLatency = chromatikSink.pipelineLatencyNanos;
+        if (pipelineLatency >= 0 && lastFrameNanos > 0) {
+            double e2eMs = (pipelineLatency + (now - lastFrameNanos)) / 1e6;
+            // Smooth the meter so it is readable in the UI.
+            double smoothed = measuredLatency.getValue() + 0.1 * (e2eMs - measuredLatency.getValue());
+            measuredLatency.setValue(Math.min(measuredLatency.range.max, smoothed));
+            GSTMetrics.set(getPipelineName() + ".latencyUs", (long) (e2eMs * 1000));
+        }
+    }
+}
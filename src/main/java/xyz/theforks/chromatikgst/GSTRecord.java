@@ -0,0 +1,70 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXCategory;
+import heronarts.lx.LXComponentName;
+import heronarts.lx.effect.LXEffect;
+import heronarts.lx.parameter.DiscreteParameter;
+
+import java.util.List;
+
+/**
+ * Records everything the channel (or view) outputs to a video file while the effect is enabled.  Put
+ * it last in the channel's effect chain.  Points are laid out on a grid using the same uv mapping as the
+ * GST patterns.  Recordings are written to ~/Chromatik/ChromatikGST/Recordings/.
+ */
+@LXCategory("Custom")
+@LXComponentName("GSTRecord")
+public class GSTRecord extends LXEffect {
+
+    public final DiscreteParameter width =
+            new DiscreteParameter("Width", 160, 1, 1921)
+                    .setDescription("Recorded video width");
+
+    public final DiscreteParameter height =
+            new DiscreteParameter("Height", 120, 1, 1081)
+                    .setDescription("Recorded video height");
+
+    public final DiscreteParameter fps =
+            new DiscreteParameter("FPS", GSTBase.RECORD_FPS, 1, 121)
+                    .setDescription("Recorded frames per second");
+
+    protected GSTRecorder recorder;
+
+    public GSTRecord(LX lx) {
+        super(lx);
+        addParameter("width", width);
+        addParameter("height", height);
+        addParameter("fps", fps);
+    }
+
+    @Override
+    protected void onEnable() {
+        List<UVPoint> uvPoints = GSTUVCache.getUVPoints(lx, model, GSTUVCache.modelKey(model));
+        recorder = new GSTRecorder("GSTRecord", GSTRecorder.createOutputFile(lx, "GSTRecord"), uvPoints,
+                colors.length, width.getValuei(), height.getValuei(), fps.getValuei());
+        // Initializes GStreamer and starts the pipeline on the recorder's thread.
+        recorder.start(GSTRecorder.DEFAULT_ENCODER);
+    }
+
+    @Override
+    protected void onDisable() {
+        if (recorder != null) {
+            recorder.stop();
+            recorder = null;
+        }
+    }
+
+    @Override
+    protected void run(double deltaMs, double enabledAmount) {
+        if (recorder != null) {
+            recorder.offer(colors);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        onDisable();
+        super.dispose();
+    }
+}
@@ -0,0 +1,249 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import org.freedesktop.gstreamer.*;
+import org.freedesktop.gstreamer.elements.AppSrc;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records LED colors to a video file.  Each point's color is drawn at its uv coordinate on a width x height
+ * grid and pushed through an appsrc ! videoconvert ! encoder ! mp4mux ! filesink pipeline.
+ *
+ * The LX engine thread only copies the colors array into a pooled buffer and offers it to a bounded
+ * queue.  When the queue is full the oldest frame is dropped, so the engine never waits on encoding.
+ * Initializing GStreamer if the package hasn't finished doing so, building the pipeline, rasterizing and
+ * pushing to GStreamer all happen on the recorder's own thread.
+ */
+public class GSTRecorder {
+
+    static public final String DEFAULT_ENCODER = "x264enc tune=zerolatency speed-preset=veryfast";
+
+    static private final int QUEUE_FRAMES = 8;
+
+    private final String name;
+    private final File outputFile;
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final long frameIntervalNanos;
+    private final int[] pointIndex;
+    private final int[] pixelOffset;
+    private final int numColors;
+
+    private final BlockingQueue<int[]> queue = new ArrayBlockingQueue<>(QUEUE_FRAMES);
+    private final ConcurrentLinkedQueue<int[]> pool = new ConcurrentLinkedQueue<>();
+    // Offered to the queue to tell the recorder thread to finish the file.
+    private final int[] endOfStream = new int[0];
+    private final CountDownLatch eosReceived = new CountDownLatch(1);
+
+    private Pipeline pipeline;
+    private AppSrc appSrc;
+    private Thread thread;
+    private long startNanos = -1;
+    private long lastOfferNanos = 0;
+    private volatile boolean stopped = false;
+    private volatile boolean failed = false;
+    private boolean stopRequested = false;
+
+    /**
+     * @param name Used for the output file and metrics.
+     * @param uvPoints uv coordinates of the points to record, snapshotted at construction.
+     * @param numColors Length of the colors arrays that will be offered.
+     */
+    public GSTRecorder(String name, File outputFile, List<UVPoint> uvPoints, int numColors, int width, int height, int fps) {
+        this.name = name;
+        this.outputFile = outputFile;
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.frameIntervalNanos = 1_000_000_000L / fps;
+        this.numColors = numColors;
+        pointIndex = new int[uvPoints.size()];
+        pixelOffset = new int[uvPoints.size()];
+        for (int i = 0; i < uvPoints.size(); i++) {
+            UVPoint uv = uvPoints.get(i);
+            int x = Math.max(0, Math.min(width - 1, Math.round(uv.u * (width - 1))));
+            int y = Math.max(0, Math.min(height - 1, Math.round(uv.v * (height - 1))));
+            pointIndex[i] = uv.point.index;
+            pixelOffset[i] = y * width + x;
+        }
+    }
+
+    /**
+     * @return A timestamped file in the ChromatikGST recordings directory.
+     */
+    static public File createOutputFile(LX lx, String name) {
+        File dir = new File(GSTUtil.getPackageDir(lx) + "Recordings");
+        dir.mkdirs();
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        return new File(dir, name + "-" + stamp + ".mp4");
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * Starts the recorder thread, which builds and plays the pipeline.  Returns immediately, frames offered
+     * before the pipeline is playing wait in the queue.
+     */
+    public void start(String encoder) {
+        thread = new Thread(() -> run(encoder), "GSTRecorder-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return True if the pipeline could not be started, the recorder then ignores offered frames.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private void run(String encoder) {
+        try {
+            GSTBase.ensureGstInitialized(name);
+            startPipeline(encoder);
+        } catch (Exception e) {
+            LX.error(e, "Failed to start recorder " + name);
+            GSTMetrics.increment("recorder.errors");
+            failed = true;
+            stopped = true;
+            if (pipeline != null) {
+                pipeline.dispose();
+            }
+            return;
+        }
+        pushFrames();
+    }
+
+    private void startPipeline(String encoder) {
+        String format = (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) ? "BGRx" : "xRGB";
+        String description = "appsrc name=src is-live=true format=time block=true max-bytes=" + (width * height * 4 * 2)
+                + " caps=video/x-raw,format=" + format + ",width=" + width + ",height=" + height + ",framerate=" + fps + "/1 ! "
+                + "videoconvert ! " + encoder + " ! mp4mux ! "
+                + "filesink location=\"" + outputFile.getAbsolutePath().replace("\\", "/") + "\"";
+        if (GSTUtil.VERBOSE) LX.log("Recorder pipeline: " + description);
+        pipeline = (Pipeline) Gst.parseLaunch(description);
+        appSrc = (AppSrc) pipeline.getElementByName("src");
+        pipeline.getBus().connect((Bus.EOS) (source) -> eosReceived.countDown());
+        pipeline.getBus().connect((Bus.ERROR) (source, code, message) -> {
+            LX.log("Recorder error " + name + ": " + message);
+            GSTMetrics.increment("recorder.errors");
+            eosReceived.countDown();
+            stop();
+        });
+        pipeline.play();
+        LX.log("Recording " + name + " to " + outputFile);
+    }
+
+    /**
+     * Called from the engine thread.  Copies the colors if a frame is due and never blocks.
+     */
+    public void offer(int[] colors) {
+        if (stopped) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (startNanos >= 0 && now - lastOfferNanos < frameIntervalNanos) {
+            return;
+        }
+        if (startNanos < 0) {
+            startNanos = now;
+        }
+        lastOfferNanos = now;
+        int[] frame = pool.poll();
+        if (frame == null) {
+            // One extra slot holds the capture time relative to the start of the recording.
+            frame = new int[numColors + 2];
+        }
+        System.arraycopy(colors, 0, frame, 0, Math.min(colors.length, numColors));
+        long pts = now - startNanos;
+        frame[numColors] = (int) (pts >>> 32);
+        frame[numColors + 1] = (int) pts;
+        while (!queue.offer(frame)) {
+            int[] dropped = queue.poll();
+            if (dropped == endOfStream) {
+                // Stopped while we were offering, keep the end of stream marker and discard this frame.
+                queue.offer(endOfStream);
+                pool.offer(frame);
+                return;
+            }
+            if (dropped != null) {
+                pool.offer(dropped);
+                GSTMetrics.increment("recorder.dropped");
+            }
+        }
+    }
+
+    /**
+     * Finishes the file asynchronously.  The recorder thread drains the queue, sends EOS so the muxer can
+     * write its index, and then shuts the pipeline down.
+     */
+    public synchronized void stop() {
+        if (stopRequested) {
+            return;
+        }
+        stopRequested = true;
+        stopped = true;
+        while (!queue.offer(endOfStream)) {
+            queue.poll();
+        }
+    }
+
+    private void pushFrames() {
+        int[] pixels = new int[width * height];
+        try {
+            while (true) {
+                int[] frame = queue.take();
+                if (frame == endOfStream) {
+                    break;
+                }
+                Arrays.fill(pixels, 0);
+                for (int i = 0; i < pointIndex.length; i++) {
+                    if (pointIndex[i] < numColors) {
+                        pixels[pixelOffset[i]] = frame[pointIndex[i]];
+                    }
+                }
+                long pts = ((long) frame[numColors] << 32) | (frame[numColors + 1] & 0xffffffffL);
+                pool.offer(frame);
+
+                Buffer buffer = new Buffer(pixels.length * 4);
+                ByteBuffer bb = buffer.map(true);
+                bb.asIntBuffer().put(pixels);
+                buffer.unmap();
+                buffer.setPresentationTimestamp(pts);
+                buffer.setDuration(frameIntervalNanos);
+                FlowReturn ret = appSrc.pushBuffer(buffer);
+                if (ret != FlowReturn.OK) {
+                    LX.log("Recorder " + name + " stopped, push returned " + ret);
+                    break;
+                }
+                GSTMetrics.increment("recorder.frames");
+            }
+            appSrc.endOfStream();
+            if (!eosReceived.await(10, TimeUnit.SECONDS)) {
+                LX.log("Recorder " + name + " timed out waiting for EOS, " + outputFile + " may be incomplete");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopped = true;
+            pipeline.stop();
+            pipeline.dispose();
+            LX.log("Recording finished: " + outputFile);
+        }
+    }
+}
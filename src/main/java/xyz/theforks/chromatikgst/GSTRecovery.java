@@ -0,0 +1,148 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import org.freedesktop.gstreamer.message.ErrorMessage;
+
+import java.util.Locale;
+
+/**
+ * Recovery from bus errors for one pattern's in-process pipeline.  The bus handler reports each ERROR
+ * with onError(), which classifies it and schedules a rebuild after a backoff, and the pattern calls
+ * poll() once per engine frame to find out when to rebuild.  Only the failed pipeline is torn down, the
+ * rest of GStreamer keeps running.
+ *
+ * Transient errors, such as a decode error or a camera glitch, are retried after 250ms, doubling up to 5s
+ * while they keep failing.  Permanent ones, such as a missing file or plugin, are retried every 30s in
+ * case the file is copied in or the device plugged back in.  The backoff resets once a rebuilt pipeline has
+ * delivered frames for 10s.
+ *
+ * Metrics, prefixed with the pipeline name: errors.transient, errors.permanent, recoveries, recoveryMs
+ * (last error to first frame of the rebuilt pipeline) and failing (1 while waiting to recover).
+ */
+public class GSTRecovery {
+
+    public enum Kind {
+        TRANSIENT,
+        PERMANENT
+    }
+
+    static private final long MIN_DELAY_MS = 250;
+    static private final long MAX_DELAY_MS = 5000;
+    static private final long PERMANENT_DELAY_MS = 30000;
+    static private final long STABLE_MS = 10000;
+
+    // Lower case fragments of GStreamer error messages that won't go away by retrying right away.
+    static private final String[] PERMANENT_ERRORS = {
+            "not found", "no such file", "could not open", "could not determine type", "missing",
+            "no element", "no decoder", "no suitable plugins", "permission denied", "not supported"
+    };
+
+    private final String name;
+    private long delayMs = MIN_DELAY_MS;
+    // When to rebuild, 0 when no rebuild is pending.
+    private long restartAtMillis = 0;
+    private long failedAtMillis = 0;
+    private long restartedAtMillis = 0;
+    // Frame sequence when the pipeline was rebuilt, -1 once a frame has arrived since.
+    private long restartSequence = -1;
+    private long resumePosition = -1;
+    private int failures = 0;
+
+    public GSTRecovery(String name) {
+        this.name = name;
+    }
+
+    static public Kind classify(ErrorMessage errMsg) {
+        String text = String.valueOf(errMsg.getMessage()).toLowerCase(Locale.ROOT);
+        for (String permanent : PERMANENT_ERRORS) {
+            if (text.contains(permanent)) {
+                return Kind.PERMANENT;
+            }
+        }
+        return Kind.TRANSIENT;
+    }
+
+    /**
+     * Called from the bus handler.  Later errors from the same failed pipeline are ignored.
+     * @param position Last known stream position in nanoseconds to resume from, or -1.
+     */
+    public synchronized void onError(ErrorMessage errMsg, long position) {
+        if (restartAtMillis != 0) {
+            return;
+        }
+        Kind kind = classify(errMsg);
+        long now = System.currentTimeMillis();
+        long delay = (kind == Kind.PERMANENT) ? PERMANENT_DELAY_MS : delayMs;
+        failures++;
+        if (failedAtMillis == 0) {
+            failedAtMillis = now;
+        }
+        restartAtMillis = now + delay;
+        restartSequence = -1;
+        if (position >= 0) {
+            resumePosition = position;
+        }
+        delayMs = Math.min(MAX_DELAY_MS, delayMs * 2);
+        GSTMetrics.increment(name + ".errors." + kind.name().toLowerCase(Locale.ROOT));
+        GSTMetrics.set(name + ".failing", 1);
+        LX.error("GStreamer error on " + name + " (" + kind.name().toLowerCase(Locale.ROOT) + "): "
+                + errMsg.getMessage() + ", rebuilding in " + delay + "ms");
+    }
+
+    /**
+     * Called from the engine thread every frame.
+     * @param frameSequence The sink's current frame sequence.
+     * @return True if the pipeline should be rebuilt now.
+     */
+    public synchronized boolean poll(long frameSequence) {
+        long now = System.currentTimeMillis();
+        if (restartAtMillis != 0) {
+            if (now < restartAtMillis) {
+                return false;
+            }
+            restartAtMillis = 0;
+            restartedAtMillis = now;
+            restartSequence = frameSequence;
+            return true;
+        }
+        if (restartSequence >= 0 && frameSequence != restartSequence) {
+            // First frame from the rebuilt pipeline.
+            long recoveryMs = now - failedAtMillis;
+            restartSequence = -1;
+            failedAtMillis = 0;
+            GSTMetrics.increment(name + ".recoveries");
+            GSTMetrics.set(name + ".recoveryMs", recoveryMs);
+            GSTMetrics.set(name + ".failing", 0);
+            LX.log("Recovered " + name + " in " + recoveryMs + "ms after " + failures + " failure(s)");
+        }
+        if (failures > 0 && failedAtMillis == 0 && now - restartedAtMillis > STABLE_MS) {
+            delayMs = MIN_DELAY_MS;
+            failures = 0;
+        }
+        return false;
+    }
+
+    /**
+     * @return The position to resume the rebuilt pipeline from, or -1.  Cleared by the call.
+     */
+    public synchronized long takeResumePosition() {
+        long position = resumePosition;
+        resumePosition = -1;
+        return position;
+    }
+
+    public synchronized boolean isFailing() {
+        return failedAtMillis != 0;
+    }
+
+    /**
+     * Forgets any pending rebuild, for when the pipeline is rebuilt or disposed for another reason.
+     */
+    public synchronized void reset() {
+        restartAtMillis = 0;
+        restartSequence = -1;
+        resumePosition = -1;
+        failedAtMillis = 0;
+        GSTMetrics.set(name + ".failing", 0);
+    }
+}
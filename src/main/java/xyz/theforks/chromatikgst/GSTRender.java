@@ -0,0 +1,125 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Headless offline renderer.  Runs one GST pattern in offline mode, see GSTBase.startOffline(), against a
+ * synthetic grid model and steps it one source frame per engine frame as fast as the CPU allows.  The LED
+ * output of every frame is hashed, and optionally written as a raw RGB file with one row of points per
+ * frame that GSTFrameSequence can play back (RawW = points, RawH = 1).  With the same source, options and
+ * GStreamer decoders the digest is identical on every run, so it can be used to validate content and
+ * pattern changes.
+ *
+ * Usage: mvn -Prender compile exec:java -Dexec.args="--source video:scantest.mp4 --output scantest.rgb"
+ *
+ * Options:
+ *   --source NAME    source as in GSTSoak (default video:chromatikgst.mp4)
+ *   --points P       number of points in the synthetic model (default 10000)
+ *   --width W        decode width (default 160)
+ *   --height H       decode height (default 120)
+ *   --fps F          engine frame rate, i.e. the deltaMs passed to run() (default 60)
+ *   --frames N       stop after N frames, required for endless sources (default: until end of stream)
+ *   --output FILE    write the LED output as raw RGB
+ */
+public class GSTRender {
+
+    static class Options {
+        String source = "video:chromatikgst.mp4";
+        int points = 10000;
+        int width = 160;
+        int height = 120;
+        double fps = 60;
+        long frames = Long.MAX_VALUE;
+        String output = null;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length - 1; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--source": options.source = value; break;
+                    case "--points": options.points = Integer.parseInt(value); break;
+                    case "--width": options.width = Integer.parseInt(value); break;
+                    case "--height": options.height = Integer.parseInt(value); break;
+                    case "--fps": options.fps = Double.parseDouble(value); break;
+                    case "--frames": options.frames = Long.parseLong(value); break;
+                    case "--output": options.output = value; break;
+                    default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            return options;
+        }
+    }
+
+    static private String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+        Options options = Options.parse(args);
+        LXModel model = GSTSoak.createGridModel(options.points);
+        LX lx = new LX(model);
+        GSTUtil.exportDefaultVideos(lx);
+
+        GSTBase pattern = GSTSoak.createPattern(lx, options.source);
+        pattern.widthKnob.setValue(options.width);
+        pattern.heightKnob.setValue(options.height);
+        if (!pattern.startOffline()) {
+            LX.error("Unable to build an offline pipeline for " + options.source);
+            System.exit(1);
+        }
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] row = new byte[model.points.length * 3];
+        OutputStream out = (options.output != null)
+                ? new BufferedOutputStream(new FileOutputStream(options.output), 1 << 20) : null;
+        double deltaMs = 1000.0 / options.fps;
+        long frames = 0;
+        long startNanos = System.nanoTime();
+        try {
+            while (frames < options.frames) {
+                pattern.run(deltaMs);
+                if (pattern.isOfflineEnded()) {
+                    break;
+                }
+                int[] colors = pattern.getRenderedColors();
+                int i = 0;
+                for (LXPoint p : model.points) {
+                    int c = colors[p.index];
+                    row[i++] = (byte) (c >> 16);
+                    row[i++] = (byte) (c >> 8);
+                    row[i++] = (byte) c;
+                }
+                digest.update(row);
+                if (out != null) {
+                    out.write(row);
+                }
+                frames++;
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            pattern.dispose();
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        LX.log(String.format("Rendered %d frames of %s in %.2fs, %.1f fps, %.1fx real time at %.0f fps",
+                frames, options.source, seconds, frames / seconds, frames / options.fps / seconds, options.fps));
+        LX.log("Output SHA-256: " + toHex(digest.digest()));
+        System.exit(0);
+    }
+}
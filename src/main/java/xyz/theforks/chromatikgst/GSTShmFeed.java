@@ -0,0 +1,95 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXCategory;
+import heronarts.lx.LXComponentName;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.StringParameter;
+import org.freedesktop.gstreamer.Pipeline;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Displays frames published live by another process, such as the included Processing sketch, through a
+ * shared memory FrameRing file.  There is no encoding or decoding step and GStreamer is not involved.
+ * Relative ring file names are resolved against ~/Chromatik/ChromatikGST/.
+ */
+@LXCategory("Custom")
+@LXComponentName("GSTShmFeed")
+public class GSTShmFeed extends GSTBase {
+
+    static private final long REOPEN_INTERVAL_NANOS = 1_000_000_000L;
+
+    public final StringParameter ringFile =
+            new StringParameter("Ring", "chromatikgst.ring")
+                    .setDescription("Frame ring file written by the publishing process");
+
+    protected long lastOpenAttemptNanos = 0;
+
+    public GSTShmFeed(LX lx) {
+        super(lx);
+        addParameter("ring", ringFile);
+    }
+
+    @Override
+    protected String getPipelineName() {
+        return "GSTShmFeed";
+    }
+
+    @Override
+    protected Pipeline initializePipeline() {
+        return null;
+    }
+
+    protected File getRingFile() {
+        String filename = ringFile.getString();
+        if (!filename.contains(File.separator)) {
+            filename = GSTUtil.getPackageDir(lx) + filename;
+        }
+        return new File(filename);
+    }
+
+    protected void openFrameRing() {
+        lastOpenAttemptNanos = System.nanoTime();
+        closeFrameRing();
+        File file = getRingFile();
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            frameRing = FrameRing.open(file);
+            if (GSTUtil.VERBOSE) LX.log("Opened frame ring " + file + " " + frameRing.getWidth() + "x" + frameRing.getHeight());
+        } catch (IOException e) {
+            if (GSTUtil.VERBOSE) LX.log("Unable to open frame ring " + file + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onParameterChanged(LXParameter p) {
+        super.onParameterChanged(p);
+        if (p == ringFile) {
+            closeFrameRing();
+        }
+    }
+
+    @Override
+    protected void onActive() {
+        openFrameRing();
+    }
+
+    @Override
+    protected void onInactive() {
+        // Nothing to pause, the publisher runs independently of this pattern.
+    }
+
+    @Override
+    protected void run(double deltaMs) {
+        // The publisher may start after us or be restarted with a different frame size.
+        if ((frameRing == null || !frameRing.isCompatible())
+                && System.nanoTime() - lastOpenAttemptNanos > REOPEN_INTERVAL_NANOS) {
+            openFrameRing();
+        }
+        super.run(deltaMs);
+    }
+}
@@ -0,0 +1,298 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless soak and throughput harness.  Runs N GST patterns against a synthetic grid model without the
+ * Chromatik UI, driving each pattern's run() at a fixed engine frame rate and periodically reporting
+ * sustained fps, frame latency percentiles, heap and native memory growth and thread counts.
+ *
+ * Sources are cycled across the patterns.  Supported source names are "testsrc" (videotestsrc),
+ * "auto" (autovideosrc) and "video:FILENAME" for a file in the GSTVideo media directory, i.e. the bundled
+ * scantest.mp4 or chromatikgst.mp4.
+ *
+ * Usage: mvn -Psoak compile exec:java -Dexec.args="--patterns 8 --minutes 240"
+ *
+ * Options:
+ *   --patterns N     number of concurrent patterns (default 4)
+ *   --minutes M      run time in minutes (default 10)
+ *   --points P       number of points in the synthetic model (default 10000)
+ *   --fps F          engine frame rate (default 60)
+ *   --report S       seconds between reports (default 30)
+ *   --warmup S       seconds before the memory baseline is taken (default 30)
+ *   --sources LIST   comma separated source names (default testsrc,video:scantest.mp4,video:chromatikgst.mp4)
+ *
+ * Exits with status 1 if any GStreamer samples or mapped buffers are still outstanding after the patterns
+ * have been disposed.
+ */
+public class GSTSoak {
+
+    static class Options {
+        int patterns = 4;
+        double minutes = 10;
+        int points = 10000;
+        double fps = 60;
+        int reportSecs = 30;
+        int warmupSecs = 30;
+        String[] sources = {"testsrc", "video:scantest.mp4", "video:chromatikgst.mp4"};
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length - 1; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--patterns": options.patterns = Integer.parseInt(value); break;
+                    case "--minutes": options.minutes = Double.parseDouble(value); break;
+                    case "--points": options.points = Integer.parseInt(value); break;
+                    case "--fps": options.fps = Double.parseDouble(value); break;
+                    case "--report": options.reportSecs = Integer.parseInt(value); break;
+                    case "--warmup": options.warmupSecs = Integer.parseInt(value); break;
+                    case "--sources": options.sources = value.split(","); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            return options;
+        }
+    }
+
+    /**
+     * Fixed size reservoir of nanosecond samples for computing percentiles over a report interval.
+     */
+    static class Percentiles {
+        private final long[] samples;
+        private int count = 0;
+        private long seen = 0;
+
+        Percentiles(int capacity) {
+            samples = new long[capacity];
+        }
+
+        void add(long nanos) {
+            if (count < samples.length) {
+                samples[count++] = nanos;
+            } else {
+                // Reservoir sampling keeps the percentiles representative for long intervals.
+                long slot = (long) (Math.random() * (seen + 1));
+                if (slot < samples.length) samples[(int) slot] = nanos;
+            }
+            seen++;
+        }
+
+        String summarize() {
+            if (count == 0) return "n/a";
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return String.format("p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+                    at(sorted, 0.50), at(sorted, 0.95), at(sorted, 0.99), sorted[count - 1] / 1e6);
+        }
+
+        static private double at(long[] sorted, double p) {
+            return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+        }
+
+        void reset() {
+            count = 0;
+            seen = 0;
+        }
+    }
+
+    /**
+     * Per pattern bookkeeping.  Frame latency is the age of a frame, measured from its arrival in the
+     * ChromatikSink until the first run() that renders it.
+     */
+    static class Soaked {
+        final GSTBase pattern;
+        final String source;
+        BufferedImage lastRendered = null;
+        long framesRendered = 0;
+        long intervalFrames = 0;
+        final Percentiles latency = new Percentiles(4096);
+        final Percentiles runTime = new Percentiles(4096);
+
+        Soaked(GSTBase pattern, String source) {
+            this.pattern = pattern;
+            this.source = source;
+        }
+
+        void run(double deltaMs) {
+            BufferedImage frame;
+            long arrivalNanos;
+            synchronized (pattern.chromatikSink.frameLock) {
+                frame = pattern.chromatikSink.lastFrame;
+                arrivalNanos = pattern.chromatikSink.lastFrameNanos;
+            }
+            long start = System.nanoTime();
+            pattern.run(deltaMs);
+            long end = System.nanoTime();
+            runTime.add(end - start);
+            if (frame != null && frame != lastRendered) {
+                lastRendered = frame;
+                latency.add(end - arrivalNanos);
+                framesRendered++;
+                intervalFrames++;
+            }
+        }
+    }
+
+    static LXModel createGridModel(int numPoints) {
+        int cols = (int) Math.ceil(Math.sqrt(numPoints * 16.0 / 9.0));
+        List<LXPoint> points = new ArrayList<>(numPoints);
+        for (int i = 0; i < numPoints; i++) {
+            points.add(new LXPoint(i % cols, i / cols, 0));
+        }
+        return new LXModel(points);
+    }
+
+    static GSTBase createPattern(LX lx, String source) {
+        if (source.equals("testsrc")) {
+            return new GSTTestSrc(lx);
+        } else if (source.equals("auto")) {
+            return new GSTAutoVideo(lx);
+        } else if (source.startsWith("video:")) {
+            GSTVideo video = new GSTVideo(lx);
+            video.videoFile.setValue(source.substring("video:".length()));
+            return video;
+        }
+        throw new IllegalArgumentException("Unknown source: " + source);
+    }
+
+    /**
+     * Resident set size from /proc on Linux, which includes GStreamer's native allocations.
+     * @return RSS in kB, or -1 if not available on this platform.
+     */
+    static private long residentKb() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux.
+        }
+        return -1;
+    }
+
+    static class MemorySnapshot {
+        final long heapUsed;
+        final long directUsed;
+        final long mappedUsed;
+        final long rssKb;
+        final int threads;
+
+        MemorySnapshot() {
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            heapUsed = memory.getHeapMemoryUsage().getUsed();
+            long direct = 0, mapped = 0;
+            for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if (pool.getName().equals("direct")) direct = pool.getMemoryUsed();
+                if (pool.getName().equals("mapped")) mapped = pool.getMemoryUsed();
+            }
+            directUsed = direct;
+            mappedUsed = mapped;
+            rssKb = residentKb();
+            threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        }
+
+        String describe(MemorySnapshot baseline) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("heap=%dMB direct=%dkB mapped=%dkB rss=%dkB threads=%d",
+                    heapUsed >> 20, directUsed >> 10, mappedUsed >> 10, rssKb, threads));
+            if (baseline != null) {
+                sb.append(String.format(" | growth heap=%+dMB direct=%+dkB mapped=%+dkB rss=%+dkB threads=%+d",
+                        (heapUsed - baseline.heapUsed) >> 20, (directUsed - baseline.directUsed) >> 10,
+                        (mappedUsed - baseline.mappedUsed) >> 10, rssKb - baseline.rssKb,
+                        threads - baseline.threads));
+            }
+            return sb.toString();
+        }
+    }
+
+    static private void report(List<Soaked> soaked, double intervalSecs, MemorySnapshot baseline) {
+        for (int i = 0; i < soaked.size(); i++) {
+            Soaked s = soaked.get(i);
+            LX.log(String.format("[%d %s] fps=%.1f frames=%d latency{%s} run{%s}",
+                    i, s.source, s.intervalFrames / intervalSecs, s.framesRendered,
+                    s.latency.summarize(), s.runTime.summarize()));
+            s.intervalFrames = 0;
+            s.latency.reset();
+            s.runTime.reset();
+        }
+        // Sample the heap after a GC hint so growth is not just uncollected garbage.
+        System.gc();
+        LX.log("Memory: " + new MemorySnapshot().describe(baseline));
+        for (Map.Entry<String, Long> entry : GSTMetrics.snapshot().entrySet()) {
+            LX.log("Metric " + entry.getKey() + "=" + entry.getValue());
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Options options = Options.parse(args);
+        LX lx = new LX(createGridModel(options.points));
+        GSTUtil.exportDefaultVideos(lx);
+
+        List<Soaked> soaked = new ArrayList<>();
+        for (int i = 0; i < options.patterns; i++) {
+            String source = options.sources[i % options.sources.length];
+            GSTBase pattern = createPattern(lx, source);
+            pattern.onActive();
+            soaked.add(new Soaked(pattern, source));
+        }
+        LX.log("Soaking " + options.patterns + " patterns over " + options.points + " points for "
+                + options.minutes + " minutes at " + options.fps + " fps");
+
+        long frameNanos = (long) (1e9 / options.fps);
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + (long) (options.minutes * 60e9);
+        long warmupNanos = startNanos + options.warmupSecs * 1_000_000_000L;
+        long lastReportNanos = startNanos;
+        long lastFrameNanos = startNanos;
+        MemorySnapshot baseline = null;
+
+        while (System.nanoTime() < endNanos) {
+            long now = System.nanoTime();
+            double deltaMs = (now - lastFrameNanos) / 1e6;
+            lastFrameNanos = now;
+            for (Soaked s : soaked) {
+                s.run(deltaMs);
+            }
+            if (baseline == null && now >= warmupNanos) {
+                System.gc();
+                baseline = new MemorySnapshot();
+                LX.log("Memory baseline: " + baseline.describe(null));
+            }
+            if (now - lastReportNanos >= options.reportSecs * 1_000_000_000L) {
+                report(soaked, (now - lastReportNanos) / 1e9, baseline);
+                lastReportNanos = now;
+            }
+            long sleepNanos = frameNanos - (System.nanoTime() - now);
+            if (sleepNanos > 0) {
+                Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+            }
+        }
+
+        report(soaked, (System.nanoTime() - lastReportNanos) / 1e9, baseline);
+        for (Soaked s : soaked) {
+            s.pattern.onInactive();
+            s.pattern.dispose();
+        }
+
+        long outstanding = GSTMetrics.get("sink.samplesOutstanding") + GSTMetrics.get("sink.buffersMapped");
+        LX.log("Soak finished. Outstanding samples/mapped buffers: " + outstanding);
+        System.exit(outstanding == 0 ? 0 : 1);
+    }
+}
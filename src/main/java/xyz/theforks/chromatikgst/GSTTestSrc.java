@@ -22,17 +22,23 @@ public class GSTTestSrc extends GSTBase {
     Bin bin = Gst.parseBinFromDescription(
       "videotestsrc ! "
         + "videoscale ! videoconvert ! "
-        + "capsfilter caps=video/x-raw,width="+widthKnob.getValuei()+",height="+heightKnob.getValuei(),
+        + "capsfilter caps=video/x-raw,width="+getDecodeWidth()+",height="+getDecodeHeight(),
       true);
     capsFilter = bin.getElementByName("capsfilter0");
     Pipeline pipeline = new Pipeline(getPipelineName());
     AppSink videoSink = createVideoSink();
     pipeline.add(bin);
-    pipeline.add(videoSink);
-    bin.link(videoSink);
+    Bin outputBin = createOutputBin(videoSink);
+    pipeline.add(outputBin);
+    bin.link(outputBin);
     return pipeline;
   }
 
+  @Override
+  protected String getWorkerSource() {
+    return "videotestsrc is-live=true";
+  }
+
   @Override
   protected String getPipelineName() {
     return "GSTTestSrc";
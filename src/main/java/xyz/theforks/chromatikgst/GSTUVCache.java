@@ -0,0 +1,289 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UV maps and compiled sampling plans shared by all GST patterns, keyed by a hash of the point indices and
+ * positions of the model they were computed for.  Patterns on the same view share one UV list and, for the
+ * same frame size and uv parameters, one plan.  Both are also written to a .chromatikgst-uvcache directory
+ * next to the project file, or to ChromatikGST/UVCache for an unsaved project, so that reopening a show
+ * reads them back instead of recomputing them.
+ *
+ * A plan is only written once its pattern has kept the same uv parameters for PLAN_SETTLE_MS, so a
+ * modulated uOff or Rotate compiles plans in memory without writing one file per frame.  Both the memory
+ * caches and the cache directory are LRU, the directory keeps the MAX_CACHE_FILES most recently used files.
+ *
+ * The shared lists and plans must be treated as read-only.
+ */
+public class GSTUVCache {
+
+    static private final int MAGIC = 0x43475556;
+    static private final int VERSION = 1;
+    static private final int MAX_UV_MAPS = 16;
+    static private final int MAX_PLANS = 64;
+    static private final int MAX_CACHE_FILES = 256;
+    static private final long PLAN_SETTLE_MS = 2000;
+
+    static private final Map<Long, List<UVPoint>> uvMaps = new LinkedHashMap<Long, List<UVPoint>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, List<UVPoint>> eldest) {
+            return size() > MAX_UV_MAPS;
+        }
+    };
+
+    static private final Map<String, SamplingPlan> plans = new LinkedHashMap<String, SamplingPlan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SamplingPlan> eldest) {
+            return size() > MAX_PLANS;
+        }
+    };
+
+    // Cache files are written in the background so a cache miss costs no more than before.
+    static private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ChromatikGST-uvcache");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // The plan write waiting for each pattern's uv parameters to settle.
+    static private final Map<Object, ScheduledFuture<?>> pendingPlanWrites = new HashMap<>();
+
+    /**
+     * @return A 64 bit FNV-1a hash of the model's point indices and positions, in point order.
+     */
+    static public long modelKey(LXModel model) {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, model.points.length);
+        for (LXPoint p : model.points) {
+            hash = mix(hash, p.index);
+            hash = mix(hash, Float.floatToIntBits(p.x));
+            hash = mix(hash, Float.floatToIntBits(p.y));
+            hash = mix(hash, Float.floatToIntBits(p.z));
+        }
+        return hash;
+    }
+
+    static private long mix(long hash, int value) {
+        for (int i = 0; i < 4; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static protected File getCacheDir(LX lx) {
+        File project = lx.getProject();
+        if (project != null && project.getParentFile() != null) {
+            return new File(project.getParentFile(), ".chromatikgst-uvcache");
+        }
+        return new File(GSTUtil.getPackageDir(lx) + "UVCache");
+    }
+
+    /**
+     * @return The UV points for the model, from memory, the disk cache or computed by UVUtil.
+     */
+    static public List<UVPoint> getUVPoints(LX lx, LXModel model, long key) {
+        synchronized (uvMaps) {
+            List<UVPoint> uvPoints = uvMaps.get(key);
+            if (uvPoints != null) {
+                GSTMetrics.increment("uvCache.hits");
+                return uvPoints;
+            }
+        }
+        File file = new File(getCacheDir(lx), Long.toHexString(key) + ".uv");
+        List<UVPoint> uvPoints = readUVPoints(file, model);
+        if (uvPoints != null) {
+            GSTMetrics.increment("uvCache.diskHits");
+        } else {
+            uvPoints = new ArrayList<UVPoint>(model.points.length);
+            UVUtil.computeUVPoints(model, uvPoints);
+            GSTMetrics.increment("uvCache.misses");
+            final List<UVPoint> computed = uvPoints;
+            writer.execute(() -> {
+                writeUVPoints(file, computed);
+                prune(file.getParentFile());
+            });
+        }
+        uvPoints = Collections.unmodifiableList(uvPoints);
+        synchronized (uvMaps) {
+            uvMaps.put(key, uvPoints);
+        }
+        return uvPoints;
+    }
+
+    static private List<UVPoint> readUVPoints(File file, LXModel model) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != model.points.length) {
+                return null;
+            }
+            List<UVPoint> uvPoints = new ArrayList<UVPoint>(model.points.length);
+            for (LXPoint p : model.points) {
+                if (in.readInt() != p.index) {
+                    return null;
+                }
+                uvPoints.add(new UVPoint(p, in.readFloat(), in.readFloat()));
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return uvPoints;
+        } catch (IOException e) {
+            LX.log("Error reading UV cache " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    static private void writeUVPoints(File file, List<UVPoint> uvPoints) {
+        writeAtomically(file, out -> {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(uvPoints.size());
+            for (UVPoint uv : uvPoints) {
+                out.writeInt(uv.point.index);
+                out.writeFloat(uv.u);
+                out.writeFloat(uv.v);
+            }
+        });
+    }
+
+    /**
+     * @param owner The pattern asking, a newly compiled plan is written once owner stops asking for others.
+     * @return The sampling plan for the uv points of the model identified by key, from memory, the disk
+     * cache or compiled.
+     */
+    static public SamplingPlan getPlan(LX lx, Object owner, long key, List<UVPoint> uvPoints, int numColors,
+                                       int width, int height, float[] params) {
+        StringBuilder planKey = new StringBuilder(Long.toHexString(key))
+                .append('-').append(numColors).append('-').append(width).append('x').append(height);
+        for (float p : params) {
+            planKey.append('-').append(Integer.toHexString(Float.floatToIntBits(p)));
+        }
+        String id = planKey.toString();
+        synchronized (pendingPlanWrites) {
+            // The parameters moved on before the last plan settled.
+            ScheduledFuture<?> pending = pendingPlanWrites.remove(owner);
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+        synchronized (plans) {
+            SamplingPlan plan = plans.get(id);
+            if (plan != null) {
+                GSTMetrics.increment("planCache.hits");
+                return plan;
+            }
+        }
+        File file = new File(getCacheDir(lx), Long.toHexString(key) + "-"
+                + Integer.toHexString(id.hashCode()) + ".plan");
+        SamplingPlan plan = readPlan(file, id);
+        if (plan != null) {
+            GSTMetrics.increment("planCache.diskHits");
+        } else {
+            plan = new SamplingPlan(uvPoints, numColors, width, height, params);
+            GSTMetrics.increment("planCache.misses");
+            if (plan.staleUVs) {
+                // Computed against an outdated colors array, the pattern recomputes its uvs.
+                return plan;
+            }
+            final SamplingPlan compiled = plan;
+            synchronized (pendingPlanWrites) {
+                final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+                self[0] = writer.schedule(() -> {
+                    synchronized (pendingPlanWrites) {
+                        pendingPlanWrites.remove(owner, self[0]);
+                    }
+                    writeAtomically(file, out -> {
+                        out.writeInt(MAGIC);
+                        out.writeInt(VERSION);
+                        out.writeUTF(id);
+                        compiled.write(out);
+                    });
+                    prune(file.getParentFile());
+                }, PLAN_SETTLE_MS, TimeUnit.MILLISECONDS);
+                pendingPlanWrites.put(owner, self[0]);
+            }
+        }
+        synchronized (plans) {
+            plans.put(id, plan);
+        }
+        return plan;
+    }
+
+    static private SamplingPlan readPlan(File file, String id) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !id.equals(in.readUTF())) {
+                return null;
+            }
+            SamplingPlan plan = SamplingPlan.read(in);
+            // The modification time orders the files for prune().
+            file.setLastModified(System.currentTimeMillis());
+            return plan;
+        } catch (IOException e) {
+            LX.log("Error reading sampling plan cache " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the least recently used files beyond MAX_CACHE_FILES.  Only called on the writer thread.
+     */
+    static private void prune(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".plan") || name.endsWith(".uv"));
+        if (files == null || files.length <= MAX_CACHE_FILES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - MAX_CACHE_FILES; i++) {
+            if (files[i].delete()) {
+                GSTMetrics.increment("uvCache.evictions");
+            }
+        }
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    static private void writeAtomically(File file, Writer contents) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                contents.write(out);
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            LX.log("Error writing UV cache " + file + ": " + e.getMessage());
+            tmp.delete();
+        }
+    }
+}
@@ -4,55 +4,230 @@ import heronarts.lx.LX;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 public class GSTUtil {
 
     public static boolean VERBOSE = false;
-    public static boolean resourceFilesCopied = false;
+    public static volatile boolean resourceFilesCopied = false;
+    static private final String EXPORT_MANIFEST = ".chromatikgst-manifest";
+    static private CompletableFuture<Void> exportFuture = null;
 
     static protected String getVideoDir(LX lx) {
         return lx.getMediaPath() + File.separator + "GSTVideo" + File.separator;
     }
 
+    /**
+     * @return The ChromatikGST package media directory for configuration and shared files.
+     */
+    static protected String getPackageDir(LX lx) {
+        return lx.getMediaPath() + File.separator + "ChromatikGST" + File.separator;
+    }
+
+    /**
+     * Starts exporting the bundled videos on a background thread if that hasn't happened yet.  Called when
+     * the package is loaded by ChromatikGSTPlugin and, in case the plugin is not enabled, whenever a GST
+     * pattern is constructed.
+     * @return Completes when the export has finished.
+     */
+    static public synchronized CompletableFuture<Void> exportDefaultVideosAsync(LX lx) {
+        if (exportFuture == null) {
+            exportFuture = new CompletableFuture<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    exportDefaultVideos(lx);
+                } finally {
+                    exportFuture.complete(null);
+                }
+            }, "ChromatikGST-export");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return exportFuture;
+    }
+
+    /**
+     * Blocks until the background export has finished, or the timeout has passed.  Only needed when a
+     * bundled video has not been written to the video directory yet, i.e. on the very first run.
+     */
+    static public void awaitDefaultVideos(LX lx, long timeoutMs) {
+        try {
+            exportDefaultVideosAsync(lx).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LX.log("Timed out waiting for ChromatikGST video export");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LX.log("Error waiting for ChromatikGST video export: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Copies the files in the resources/video folder of the jar that this class came from into
+     * getVideoDir().  The jar is opened once.  A manifest of the size and CRC of every exported file is
+     * kept in the video directory so that unchanged files are skipped and files that changed in a newer
+     * release are refreshed.  Files are written to a temporary name and then moved into place so that a
+     * playing pattern never sees a partial file.
+     */
     static public void exportDefaultVideos(LX lx) {
         if (resourceFilesCopied) {
             return;
         }
-        LX.log("Exporting default videos for ChromatikGST");
-        // Copy all the files from the resources/video folder in the jar that this class
-        // came from into the media folder getVideoDir()
+        long startNanos = System.nanoTime();
         String videoDir = getVideoDir(lx);
         File videoDirFile = new File(videoDir);
         if (!videoDirFile.exists()) {
             videoDirFile.mkdirs();
         }
-        // Inspect the directory contents of resources/video in the jar file that this
-        // class was loaded from.
-        List<String> includedVideos = GSTUtil.getIncludedVideoFiles(GSTVideo.class, "video");
-        for (String includedVideo : includedVideos) {
-            File videoFile = new File(videoDir + includedVideo);
-            if (!videoFile.exists()) {
-                LX.log("Exporting ChromatikGST video: " + includedVideo);
+        File manifestFile = new File(videoDir + EXPORT_MANIFEST);
+        Map<String, String> manifest = readManifest(manifestFile);
+        boolean manifestChanged = false;
+        int exported = 0;
+
+        URL resourceUrl = GSTVideo.class.getClassLoader().getResource("video");
+        if (resourceUrl == null) {
+            resourceFilesCopied = true;
+            return;
+        }
+        FileSystem fileSystem = null;
+        try {
+            Path resourceDir;
+            if (resourceUrl.getProtocol().equals("jar")) {
+                fileSystem = FileSystems.newFileSystem(resourceUrl.toURI(), Collections.<String, Object>emptyMap());
+                resourceDir = fileSystem.getPath("video");
+            } else {
+                // Resources in a regular directory, useful for development.
+                resourceDir = Path.of(resourceUrl.toURI());
+            }
+            for (Path resource : listPaths(resourceDir)) {
+                String name = resource.getFileName().toString();
+                String signature = Files.size(resource) + "\t" + Long.toHexString(resourceCrc(resource));
+                File videoFile = new File(videoDir + name);
+                if (videoFile.exists()) {
+                    if (signature.equals(manifest.get(name))) {
+                        continue;
+                    }
+                    // Exported by an older release without a manifest, adopt it if it is identical.
+                    if (!manifest.containsKey(name) && signature.equals(fileSignature(videoFile.toPath()))) {
+                        manifest.put(name, signature);
+                        manifestChanged = true;
+                        continue;
+                    }
+                }
+                LX.log("Exporting ChromatikGST video: " + name);
                 try {
-                    GSTUtil.copyResourceToFile(GSTVideo.class, "video/" + includedVideo, videoFile);
-                } catch (Exception e) {
+                    Path tmp = new File(videoDir + name + ".tmp").toPath();
+                    Files.copy(resource, tmp, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(tmp, videoFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    manifest.put(name, signature);
+                    manifestChanged = true;
+                    exported++;
+                } catch (IOException e) {
                     LX.log("Error copying video file: " + e.getMessage());
                 }
             }
+        } catch (URISyntaxException | IOException e) {
+            LX.log("Error exporting default videos: " + e.getMessage());
+        } finally {
+            if (fileSystem != null) {
+                try {
+                    fileSystem.close();
+                } catch (IOException e) {
+                    LX.log("Error closing jar: " + e.getMessage());
+                }
+            }
         }
+        if (manifestChanged) {
+            writeManifest(manifestFile, manifest);
+        }
+        if (VERBOSE) LX.log("Exported " + exported + " ChromatikGST videos in " + (System.nanoTime() - startNanos) / 1000000 + "ms");
         resourceFilesCopied = true;
     }
 
+    /**
+     * @return The CRC of a resource.  Jar entries already store it, so reading the file is only needed
+     * when running from a resources directory.
+     */
+    static private long resourceCrc(Path resource) throws IOException {
+        try {
+            Object crc = Files.getAttribute(resource, "zip:crc");
+            if (crc instanceof Number) {
+                return ((Number) crc).longValue();
+            }
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // Not a zip file system.
+        }
+        return computeCrc(resource);
+    }
+
+    static private String fileSignature(Path file) throws IOException {
+        return Files.size(file) + "\t" + Long.toHexString(computeCrc(file));
+    }
+
+    static private long computeCrc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                crc.update(buf, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Manifest lines are name, size and hex CRC separated by tabs.
+     */
+    static private Map<String, String> readManifest(File manifestFile) {
+        Map<String, String> manifest = new HashMap<>();
+        if (!manifestFile.exists()) {
+            return manifest;
+        }
+        try {
+            for (String line : Files.readAllLines(manifestFile.toPath())) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    manifest.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        } catch (IOException e) {
+            LX.log("Error reading video manifest: " + e.getMessage());
+        }
+        return manifest;
+    }
+
+    static private void writeManifest(File manifestFile, Map<String, String> manifest) {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, String> entry : new TreeMap<>(manifest).entrySet()) {
+            lines.add(entry.getKey() + "\t" + entry.getValue());
+        }
+        try {
+            Files.write(manifestFile.toPath(), lines);
+        } catch (IOException e) {
+            LX.log("Error writing video manifest: " + e.getMessage());
+        }
+    }
+
     static public List<String> getIncludedVideoFiles(Class<?> clazz, String resourcePath) {
         return listResourceFiles(clazz, resourcePath);
     }
@@ -82,6 +257,14 @@ public class GSTUtil {
         }
     }
 
+    static private List<Path> listPaths(Path path) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(path, 1)) {
+            walk.filter(Files::isRegularFile).forEach(paths::add);
+        }
+        return paths;
+    }
+
     static private List<String> listFiles(Path path) throws IOException {
         List<String> fileList = new ArrayList<>();
 
@@ -95,36 +278,4 @@ public class GSTUtil {
 
         return fileList;
     }
-
-    /**
-     * Copy a file from the resources path of a JAR to a file on disk.
-     * @param gstClass
-     * @param s
-     * @param videoFile
-     */
-    public static void copyResourceToFile(Class<GSTVideo> gstClass, String s, File videoFile) {
-        // Copy a file from the resources path of a JAR to a file on disk
-        try {
-            URL resourceUrl = gstClass.getClassLoader().getResource(s);
-            if (resourceUrl == null) {
-                LX.log("Resource not found: " + s);
-                return;
-            }
-
-            if (resourceUrl.getProtocol().equals("jar")) {
-                // Handle resources in JAR
-                try (FileSystem fileSystem = FileSystems.newFileSystem(
-                        resourceUrl.toURI(), Collections.<String, Object>emptyMap())) {
-                    Path path = fileSystem.getPath(s);
-                    Files.copy(path, videoFile.toPath());
-                }
-            } else {
-                // Handle resources in regular directory (useful for development)
-                Path path = Path.of(resourceUrl.toURI());
-                Files.copy(path, videoFile.toPath());
-            }
-        } catch (URISyntaxException | IOException e) {
-            LX.log("Error copying resource file: " + e.getMessage());
-        }
-    }
 }
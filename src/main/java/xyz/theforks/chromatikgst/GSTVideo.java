@@ -18,9 +18,13 @@ import heronarts.lx.studio.ui.device.UIDeviceControls;
 import org.freedesktop.gstreamer.*;
 import org.freedesktop.gstreamer.elements.AppSink;
 import org.freedesktop.gstreamer.elements.PlayBin;
+import org.freedesktop.gstreamer.event.SeekFlags;
+import org.freedesktop.gstreamer.message.MessageType;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.EnumSet;
 
 /**
  * A pattern that plays a video file using GStreamer and displays it on the model.  This
@@ -41,40 +45,188 @@ public class GSTVideo extends GSTBase implements UIDeviceControls<GSTVideo> {
             new BooleanParameter("Sync", true)
                     .setDescription("Reset video each time pattern becomes active");
 
+    public final BooleanParameter audio =
+            new BooleanParameter("Audio", false)
+                    .setDescription("Analyze the audio track to drive the level and band meters");
+
+    public final BoundedParameter audioLevel =
+            new BoundedParameter("Level", 0, 0, 1)
+                    .setDescription("Audio RMS level, usable as a modulation source");
+
+    public final BoundedParameter audioBass =
+            new BoundedParameter("Bass", 0, 0, 1)
+                    .setDescription("Audio bass band energy, usable as a modulation source");
+
+    public final BoundedParameter audioMid =
+            new BoundedParameter("Mid", 0, 0, 1)
+                    .setDescription("Audio mid band energy, usable as a modulation source");
+
+    public final BoundedParameter audioTreble =
+            new BoundedParameter("Treble", 0, 0, 1)
+                    .setDescription("Audio treble band energy, usable as a modulation source");
+
+    public final BoundedParameter audioOnset =
+            new BoundedParameter("Onset", 0, 0, 1)
+                    .setDescription("Audio onset/beat strength, usable as a modulation source");
+
+    public final CompoundParameter cue =
+            new CompoundParameter("Cue", 0, 0, 1)
+                    .setDescription("Position to restart from when sync is on, as a fraction of the video length");
+
+    public final BooleanParameter snapCue =
+            new BooleanParameter("Snap", true)
+                    .setDescription("Restart from the keyframe at or before the cue so no frames are decoded and thrown away");
+
+    public final CompoundParameter rate =
+            (CompoundParameter) new CompoundParameter("Rate", 1, 0.25, 16)
+                    .setExponent(2)
+                    .setDescription("Playback speed, above 2x only keyframes are decoded and audio is skipped");
+
+    public final BooleanParameter scrub =
+            new BooleanParameter("Scrub", false)
+                    .setDescription("Pause playback and show the keyframe nearest ScrubPos");
+
+    public final CompoundParameter scrubPosition =
+            new CompoundParameter("ScrubPos", 0, 0, 1)
+                    .setDescription("Position to show while scrubbing, as a fraction of the video length");
+
+    // Above this rate only keyframes are decoded, see getTrickModeFlags().
+    static public final double TRICK_RATE = 2.0;
+    // A scrub seek that hasn't prerolled by then is assumed lost and the next one is sent anyway.
+    static private final long SCRUB_TIMEOUT_NANOS = 250_000_000L;
+
     protected PlayBin playbin;
-    protected Element capsFilter;
+    // The pipeline once its bus is configured and its first segment seek is done.  Rate and scrub changes
+    // are only applied to it, a pipeline still being built picks them up from getPlaybackRate() and
+    // getTrickModeFlags().
+    protected volatile Pipeline readyPipeline;
+    private double appliedRate = 1;
+    private boolean appliedTrickMode = false;
+    private boolean scrubbing = false;
+    private double scrubbedPosition = -1;
+    protected volatile boolean scrubSeekPending = false;
+    private long scrubSeekNanos = 0;
+
+    // A preroll frame within this distance past the cue position is accepted as the cue frame.
+    static private final long CUE_TOLERANCE_NANOS = 50_000_000L;
+    protected volatile String pendingCueKey = null;
+    protected volatile long pendingCuePosition = 0;
+
+    static private final long EXPORT_WAIT_MS = 30000;
+
+    protected GSTAudioAnalyzer audioAnalyzer;
     private UIButton openButton;
 
+    // Summary of the current file's metadata from the media index for the UI.  Not saved with the project.
+    public final StringParameter mediaSummary = new StringParameter("Info", "");
+    protected volatile GSTMediaIndex.MediaInfo mediaInfo;
+    protected final GSTMediaIndex mediaIndex;
+    private final GSTMediaIndex.Listener indexListener = (info) -> {
+        if (info.path.equals(getVideoFile().getAbsolutePath())) {
+            mediaInfo = info;
+            lx.engine.addTask(() -> mediaSummary.setValue(info.getSummary()));
+        }
+    };
+
 
     public GSTVideo(LX lx) {
         super(lx);
         addParameter("video", this.videoFile);
         addParameter("sync", this.sync);
+        addParameter("audio", this.audio);
+        addParameter("audioLevel", this.audioLevel);
+        addParameter("audioBass", this.audioBass);
+        addParameter("audioMid", this.audioMid);
+        addParameter("audioTreble", this.audioTreble);
+        addParameter("audioOnset", this.audioOnset);
+        addParameter("cue", this.cue);
+        addParameter("snapCue", this.snapCue);
+        addParameter("rate", this.rate);
+        addParameter("scrub", this.scrub);
+        addParameter("scrubPosition", this.scrubPosition);
+        chromatikSink.prerollListener = this::onPreroll;
+        mediaIndex = GSTMediaIndex.get(lx);
+        mediaIndex.addListener(indexListener);
+        updateMediaInfo();
     }
 
     @Override
     public void onParameterChanged(LXParameter p) {
         super.onParameterChanged(p);
         if (p == videoFile) {
+            updateMediaInfo();
+        }
+        if (p == videoFile || p == audio) {
             if (playbin != null) {
-               disposePipeline();
-               gstInitialized = false;
                playbin = null;
-               gstThread.interrupt();
-               initGSTWithThread(lx);
+               restartPipeline();
+            } else if (p == videoFile && worker != null) {
+               startWorker();
             }
         }
     }
 
+    @Override
+    protected boolean isResumable() {
+        return true;
+    }
+
+    @Override
+    protected void recoverPipeline() {
+        playbin = null;
+        super.recoverPipeline();
+    }
+
     protected String getVideoDir() {
         return GSTUtil.getVideoDir(lx);
     }
 
+    /**
+     * @return The video file.  If the parameter doesn't include a path it is in the GSTVideo directory.
+     */
+    protected File getVideoFile() {
+        String fullPathname = videoFile.getString();
+        if (!fullPathname.contains(File.separator))
+            fullPathname = getVideoDir() + videoFile.getString();
+        return new File(fullPathname);
+    }
+
+    /**
+     * @return Resolution, framerate, duration and codecs of the current file, or null if it hasn't been
+     * indexed yet.
+     */
+    public GSTMediaIndex.MediaInfo getMediaInfo() {
+        return mediaInfo;
+    }
+
+    protected void updateMediaInfo() {
+        mediaInfo = mediaIndex.get(getVideoFile());
+        mediaSummary.setValue(mediaInfo != null ? mediaInfo.getSummary() : "");
+    }
+
     @Override
     protected String getPipelineName() {
         return "GSTVideo";
     }
 
+    /**
+     * Decodes only the video stream in the worker, audio analysis needs the in-process pipeline.
+     */
+    @Override
+    protected String getWorkerSource() {
+        return "uridecodebin uri=" + getVideoFile().toURI() + " caps=video/x-raw";
+    }
+
+    @Override
+    protected boolean isWorkerLive() {
+        return false;
+    }
+
+    @Override
+    protected boolean isWorkerLooping() {
+        return true;
+    }
+
     protected Element createCapsFilter(int width, int height) {
         // Create caps filter for scaling
         String capsStr = String.format("video/x-raw,width=%d,height=%d,format=BGRx",
@@ -89,16 +241,20 @@ public class GSTVideo extends GSTBase implements UIDeviceControls<GSTVideo> {
         if (playbin != null)
             return playbin;
 
-        GSTUtil.exportDefaultVideos(lx);
         if (GSTUtil.VERBOSE) LX.log("Initializing GST playbin pipeline: " + getPipelineName());
         playbin = new PlayBin("playbin");
-        String videoFilename = getVideoDir() + videoFile.getString();
-        if (GSTUtil.VERBOSE) LX.log("Playing : " + videoFilename);
-        // If the string parameter doesn't include a path, then assume it is in the GSTVideo directory
-        String fullPathname = videoFile.getString();
-        if (!fullPathname.contains(File.separator))
-            fullPathname = getVideoDir() + videoFile.getString();
-        playbin.setURI(new File(fullPathname).toURI());
+        File file = getVideoFile();
+        if (GSTUtil.VERBOSE) LX.log("Playing : " + file);
+        if (!file.exists() && !GSTUtil.resourceFilesCopied) {
+            // Probably a bundled video on the first run, the background export is still writing it.
+            // This runs on the GStreamer init thread, not the engine thread.
+            GSTUtil.awaitDefaultVideos(lx, EXPORT_WAIT_MS);
+        }
+        playbin.setURI(file.toURI());
+        if (isSyncOn() && getSyncPosition() == 0) {
+            // The initial preroll is the frame at the head of the video.
+            expectCueFrame(0);
+        }
         // TODO(tracy): Decide what to do with audio files.  Currently we just set the audio sink to
         // a fake sink so we don't generate audio.  This probably gets complicated to support in the
         // way that people want to use it across different platforms.  Also, if the audio device is
@@ -107,9 +263,18 @@ public class GSTVideo extends GSTBase implements UIDeviceControls<GSTVideo> {
 
         // Another option for silence.
         // playbin.set("audio-sink", null);
-        // Create a fake sink
-        Element fakeSink = ElementFactory.make("fakesink", "audio-fake-sink");
-        playbin.set("audio-sink", fakeSink);
+        GSTMediaIndex.MediaInfo info = mediaInfo;
+        if (audio.isOn() && !offline && (info == null || info.hasAudio())) {
+            // Decoded audio goes to the analyzer, which consumes it in sync with the clock but never
+            // opens an audio device.
+            audioAnalyzer = new GSTAudioAnalyzer();
+            playbin.set("audio-sink", audioAnalyzer.createAudioSink());
+        } else {
+            // Create a fake sink
+            audioAnalyzer = null;
+            Element fakeSink = ElementFactory.make("fakesink", "audio-fake-sink");
+            playbin.set("audio-sink", fakeSink);
+        }
 
         // Another strategy for not playing audio.
         //int flags = (1 << 1 | 1 << 2);  // Combines VIDEO and NATIVE_VIDEO flags
@@ -129,7 +294,7 @@ public class GSTVideo extends GSTBase implements UIDeviceControls<GSTVideo> {
             return null;
         }
 
-        capsFilter = createCapsFilter(widthKnob.getValuei(), heightKnob.getValuei());
+        capsFilter = createCapsFilter(getDecodeWidth(), getDecodeHeight());
         if (capsFilter == null) {
             LX.error("Failed to create capsFilter element for pipeline: " + getPipelineName());
             return null;
@@ -141,16 +306,18 @@ public class GSTVideo extends GSTBase implements UIDeviceControls<GSTVideo> {
             return null;
         }
 
+        Bin outputBin = createOutputBin(videoSink);
+
         Bin scalerBin = new Bin("video-bin");
         scalerBin.add(videoconvert);
         scalerBin.add(videoscale);
         scalerBin.add(capsFilter);
-        scalerBin.add(videoSink);
+        scalerBin.add(outputBin);
 
         try {
             videoconvert.link(videoscale);
             videoscale.link(capsFilter);
-            capsFilter.link(videoSink);
+            capsFilter.link(outputBin);
         } catch (Exception e) {
             LX.error(e, "Failed to link elements in video-bin for pipeline: " + getPipelineName());
         }
@@ -165,6 +332,255 @@ public class GSTVideo extends GSTBase implements UIDeviceControls<GSTVideo> {
         return playbin;
     }
 
+    @Override
+    protected void configurePipelineBus() {
+        final GSTAudioAnalyzer analyzer = audioAnalyzer;
+        pipeline.getBus().connect((Bus.MESSAGE) (bus, message) -> {
+            if (message.getType() == MessageType.ELEMENT && analyzer != null) {
+                analyzer.handleMessage(message);
+            } else if (message.getType() == MessageType.ASYNC_DONE) {
+                // A scrub seek has prerolled its frame.
+                scrubSeekPending = false;
+            }
+        });
+        super.configurePipelineBus();
+        appliedRate = getPlaybackRate();
+        appliedTrickMode = isTrickMode();
+        scrubbing = false;
+        readyPipeline = pipeline;
+    }
+
+    @Override
+    protected double getPlaybackRate() {
+        return rate.getValue();
+    }
+
+    protected boolean isTrickMode() {
+        return rate.getValue() > TRICK_RATE;
+    }
+
+    /**
+     * Fast playback decodes keyframes only and skips audio, so it costs about as much as normal playback
+     * instead of decoding every frame only to drop most of them before they reach the LEDs.
+     */
+    @Override
+    protected EnumSet<SeekFlags> getTrickModeFlags() {
+        if (isTrickMode()) {
+            return EnumSet.of(SeekFlags.TRICKMODE, SeekFlags.TRICKMODE_KEY_UNITS, SeekFlags.TRICKMODE_NO_AUDIO);
+        }
+        return super.getTrickModeFlags();
+    }
+
+    /**
+     * Applies a Rate change.  Within the same mode the rate changes instantly without flushing.  Crossing
+     * into or out of trick mode, or on GStreamer before 1.18, it takes a flushing seek to the current
+     * position.
+     */
+    protected void updateRate() {
+        double newRate = getPlaybackRate();
+        boolean trickMode = isTrickMode();
+        if (newRate == appliedRate && trickMode == appliedTrickMode) {
+            return;
+        }
+        boolean accepted = false;
+        if (trickMode == appliedTrickMode) {
+            // The instant change takes its trick mode flags from this seek, keep the ones in effect.
+            EnumSet<SeekFlags> flags = EnumSet.of(SeekFlags.INSTANT_RATE_CHANGE);
+            flags.addAll(getTrickModeFlags());
+            accepted = pipeline.seek(newRate, Format.TIME, flags, SeekType.NONE, 0, SeekType.NONE, 0);
+            GSTEvents.seek(getPipelineName(), newRate, -1, flags, accepted);
+        }
+        if (!accepted) {
+            long position = pipeline.queryPosition(Format.TIME);
+            EnumSet<SeekFlags> flags = EnumSet.of(SeekFlags.SEGMENT, SeekFlags.FLUSH, SeekFlags.KEY_UNIT);
+            flags.addAll(getTrickModeFlags());
+            accepted = pipeline.seek(newRate, Format.TIME, flags, SeekType.SET, Math.max(0, position), SeekType.NONE, 0);
+            GSTEvents.seek(getPipelineName(), newRate, position, flags, accepted);
+            GSTMetrics.increment(getPipelineName() + ".rateFlushes");
+        }
+        appliedRate = newRate;
+        appliedTrickMode = trickMode;
+    }
+
+    /**
+     * While scrubbing the pipeline is paused and each move of ScrubPos is a flushing key unit seek, which
+     * prerolls just the nearest keyframe.  Only one seek is in flight at a time, so dragging the knob costs
+     * one keyframe decode per preroll rather than a queue of seeks.
+     */
+    protected void updateScrub() {
+        if (scrub.isOn() != scrubbing) {
+            scrubbing = scrub.isOn();
+            if (scrubbing) {
+                pipeline.setState(State.PAUSED);
+                GSTEvents.stateChange(getPipelineName(), "PAUSED");
+                scrubbedPosition = -1;
+                scrubSeekPending = false;
+            } else {
+                // Resume from the scrubbed position at the current rate.
+                long position = pipeline.queryPosition(Format.TIME);
+                EnumSet<SeekFlags> flags = EnumSet.of(SeekFlags.SEGMENT, SeekFlags.FLUSH, SeekFlags.ACCURATE);
+                flags.addAll(getTrickModeFlags());
+                boolean accepted = pipeline.seek(getPlaybackRate(), Format.TIME, flags, SeekType.SET, Math.max(0, position), SeekType.NONE, 0);
+                GSTEvents.seek(getPipelineName(), getPlaybackRate(), position, flags, accepted);
+                appliedRate = getPlaybackRate();
+                appliedTrickMode = isTrickMode();
+                pipeline.setState(State.PLAYING);
+                GSTEvents.stateChange(getPipelineName(), "PLAYING");
+                return;
+            }
+        }
+        if (!scrubbing) {
+            return;
+        }
+        double target = scrubPosition.getValue();
+        long now = System.nanoTime();
+        if (target == scrubbedPosition || (scrubSeekPending && now - scrubSeekNanos < SCRUB_TIMEOUT_NANOS)) {
+            return;
+        }
+        long duration = getDurationNanos();
+        if (duration <= 0) {
+            return;
+        }
+        long position = (long) (target * duration);
+        EnumSet<SeekFlags> flags = EnumSet.of(SeekFlags.FLUSH, SeekFlags.KEY_UNIT, SeekFlags.SNAP_NEAREST,
+                SeekFlags.TRICKMODE, SeekFlags.TRICKMODE_KEY_UNITS, SeekFlags.TRICKMODE_NO_AUDIO);
+        scrubSeekPending = true;
+        scrubSeekNanos = now;
+        boolean accepted = pipeline.seek(1.0, Format.TIME, flags, SeekType.SET, position, SeekType.NONE, 0);
+        GSTEvents.seek(getPipelineName(), 1.0, position, flags, accepted);
+        GSTMetrics.increment(getPipelineName() + ".scrubSeeks");
+        scrubbedPosition = target;
+    }
+
+    @Override
+    protected void preRun(double deltaMs) {
+        if (pipeline != null && pipeline == readyPipeline) {
+            updateScrub();
+            if (!scrubbing) {
+                updateRate();
+            }
+        }
+        GSTAudioAnalyzer analyzer = audioAnalyzer;
+        if (analyzer != null) {
+            analyzer.update(pipeline);
+            audioLevel.setValue(analyzer.level);
+            audioBass.setValue(analyzer.bass);
+            audioMid.setValue(analyzer.mid);
+            audioTreble.setValue(analyzer.treble);
+            audioOnset.setValue(analyzer.onset);
+        }
+    }
+
+    /**
+     * The sync position is the cue as a fraction of the duration, from the media index if it has the file,
+     * otherwise from the pipeline.
+     */
+    @Override
+    protected long getSyncPosition() {
+        if (cue.getValue() == 0) {
+            return 0;
+        }
+        long duration = getDurationNanos();
+        return duration > 0 ? (long) (cue.getValue() * duration) : 0;
+    }
+
+    /**
+     * @return The duration from the media index if it has the file, otherwise from the pipeline, or -1.
+     */
+    protected long getDurationNanos() {
+        GSTMediaIndex.MediaInfo info = mediaInfo;
+        long duration = (info != null) ? info.durationNanos : -1;
+        if (duration <= 0 && pipeline != null) {
+            duration = pipeline.queryDuration(Format.TIME);
+        }
+        return duration;
+    }
+
+    /**
+     * With snap on, the restart lands on the keyframe at or before the cue.  The demuxer already has the
+     * container's keyframe index, so this costs one keyframe decode instead of decoding forward from the
+     * previous keyframe to an exact position.
+     */
+    @Override
+    protected EnumSet<SeekFlags> getSyncSeekFlags() {
+        if (snapCue.isOn()) {
+            return EnumSet.of(SeekFlags.SEGMENT, SeekFlags.FLUSH, SeekFlags.KEY_UNIT, SeekFlags.SNAP_BEFORE);
+        }
+        return super.getSyncSeekFlags();
+    }
+
+    protected String getCueKey(long position) {
+        return GSTFrameCache.key(getVideoFile(), widthKnob.getValuei(), heightKnob.getValuei(), position);
+    }
+
+    /**
+     * The next preroll frame at or before position is stored in the frame cache.
+     */
+    protected void expectCueFrame(long position) {
+        pendingCuePosition = position;
+        pendingCueKey = getCueKey(position);
+    }
+
+    protected void onPreroll(BufferedImage image, long pts) {
+        String key = pendingCueKey;
+        if (key != null && pts != ClockTime.NONE && pts <= pendingCuePosition + CUE_TOLERANCE_NANOS) {
+            pendingCueKey = null;
+            GSTFrameCache.put(lx, key, image);
+        }
+    }
+
+    /**
+     * With sync on, show the cached cue frame right away.  The first activation otherwise shows nothing until
+     * the pipeline has been built and pre-rolled, and later ones depend on the preroll from the seek in
+     * onInactive() having finished.  A frame that is only on disk is loaded in the background and shown if
+     * the pipeline hasn't delivered one by then.
+     */
+    @Override
+    protected void onActive() {
+        if (isSyncOn()) {
+            String key = getCueKey(getSyncPosition());
+            BufferedImage cached = GSTFrameCache.get(key);
+            if (cached != null) {
+                chromatikSink.setFrame(cached);
+                GSTMetrics.increment("frameCache.hits");
+            } else {
+                final long sequence;
+                synchronized (chromatikSink.frameLock) {
+                    sequence = chromatikSink.frameSequence;
+                }
+                GSTFrameCache.load(lx, key).thenAccept(image -> {
+                    if (image == null) {
+                        return;
+                    }
+                    synchronized (chromatikSink.frameLock) {
+                        if (chromatikSink.frameSequence == sequence) {
+                            chromatikSink.setFrame(image);
+                            GSTMetrics.increment("frameCache.hits");
+                        }
+                    }
+                });
+            }
+        }
+        super.onActive();
+        if (scrubbing && pipeline != null && pipeline == readyPipeline) {
+            // Stay paused, and seek again since onInactive() may have moved the position.
+            pipeline.setState(State.PAUSED);
+            scrubbedPosition = -1;
+        }
+    }
+
+    @Override
+    protected void onInactive() {
+        if (pipeline != null && isSyncOn()) {
+            expectCueFrame(getSyncPosition());
+        }
+        super.onInactive();
+        // The flushing seek restarts the running time, readings queued before it are stale.
+        if (audioAnalyzer != null) {
+            audioAnalyzer.reset();
+        }
+    }
+
     @Override
     public void buildDeviceControls(LXStudio.UI ui, UIDevice uiDevice, GSTVideo pattern) {
         uiDevice.setContentWidth(250);
@@ -210,6 +626,15 @@ public class GSTVideo extends GSTBase implements UIDeviceControls<GSTVideo> {
                 .setDescription("Open Video")
                 .addToContainer(fileContainer);
 
+        final UILabel infoLabel = (UILabel)
+                new UILabel(0, 0, 240, 12)
+                        .setLabel(pattern.mediaSummary.getString())
+                        .setTextAlignment(VGraphics.Align.LEFT, VGraphics.Align.MIDDLE)
+                        .addToContainer(uiDevice);
+        pattern.mediaSummary.addListener(p -> {
+            infoLabel.setLabel(pattern.mediaSummary.getString());
+        });
+
         final UI2dContainer knobsContainer = (UI2dContainer) new UI2dContainer(0, 25, 150, 40)
                 .setLayout(UI2dContainer.Layout.HORIZONTAL)
                 .addToContainer(uiDevice);
@@ -227,6 +652,13 @@ public class GSTVideo extends GSTBase implements UIDeviceControls<GSTVideo> {
                 .setParameter(pattern.sync)
                 .addToContainer(knobsContainer);
         syncT.setLabel("Sync");
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.cue)
+                .addToContainer(knobsContainer);
+        final UIButton snapT = (UIButton) new UIButton(0, 0, 35, 30)
+                .setParameter(pattern.snapCue)
+                .addToContainer(knobsContainer);
+        snapT.setLabel("Snap");
 
         final UI2dContainer uvContainer= (UI2dContainer) new UI2dContainer(0, 70, 150, 40)
                 .setLayout(UI2dContainer.Layout.HORIZONTAL)
@@ -250,7 +682,7 @@ public class GSTVideo extends GSTBase implements UIDeviceControls<GSTVideo> {
         new UIButton(35, 30, pattern.flipVertical)
                 .addToContainer(uvContainer);
 
-        final UI2dContainer tileContainer = (UI2dContainer) new UI2dContainer(0, 115, 150, 40)
+        final UI2dContainer tileContainer = (UI2dContainer) new UI2dContainer(0, 115, 250, 40)
                 .setLayout(UI2dContainer.Layout.HORIZONTAL)
                 .addToContainer(uiDevice);
         tileContainer.setPadding(5);
@@ -264,6 +696,64 @@ public class GSTVideo extends GSTBase implements UIDeviceControls<GSTVideo> {
         new UIKnob(80, 0, 35, 30)
                 .setParameter(pattern.tileY)
                 .addToContainer(tileContainer);
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.rate)
+                .addToContainer(tileContainer);
+        final UIButton scrubT = (UIButton) new UIButton(0, 0, 35, 30)
+                .setParameter(pattern.scrub)
+                .addToContainer(tileContainer);
+        scrubT.setLabel("Scrub");
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.scrubPosition)
+                .addToContainer(tileContainer);
+
+        final UI2dContainer colorContainer = (UI2dContainer) new UI2dContainer(0, 160, 250, 40)
+                .setLayout(UI2dContainer.Layout.HORIZONTAL)
+                .addToContainer(uiDevice);
+        colorContainer.setPadding(5);
+        colorContainer.setChildSpacing(5);
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.gamma)
+                .addToContainer(colorContainer);
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.gain)
+                .addToContainer(colorContainer);
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.whiteRed)
+                .addToContainer(colorContainer);
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.whiteGreen)
+                .addToContainer(colorContainer);
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.whiteBlue)
+                .addToContainer(colorContainer);
+        new UIButton(35, 30, pattern.expandRange)
+                .addToContainer(colorContainer);
+
+        final UI2dContainer audioContainer = (UI2dContainer) new UI2dContainer(0, 205, 250, 40)
+                .setLayout(UI2dContainer.Layout.HORIZONTAL)
+                .addToContainer(uiDevice);
+        audioContainer.setPadding(5);
+        audioContainer.setChildSpacing(5);
+        final UIButton audioT = (UIButton) new UIButton(0, 0, 35, 30)
+                .setParameter(pattern.audio)
+                .addToContainer(audioContainer);
+        audioT.setLabel("Audio");
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.audioLevel)
+                .addToContainer(audioContainer);
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.audioBass)
+                .addToContainer(audioContainer);
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.audioMid)
+                .addToContainer(audioContainer);
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.audioTreble)
+                .addToContainer(audioContainer);
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.audioOnset)
+                .addToContainer(audioContainer);
     }
 
     public void onOpen(final File openFile) {
@@ -281,6 +771,12 @@ public class GSTVideo extends GSTBase implements UIDeviceControls<GSTVideo> {
         }
     }
 
+    @Override
+    public void dispose() {
+        mediaIndex.removeListener(indexListener);
+        super.dispose();
+    }
+
     /**
      * Each time the pattern becomes inactive, reset the play position to the beginning of the video whenever
      * sync is enabled.  This is handled in GSTBase because the default onInactive() pauses the pipeline and
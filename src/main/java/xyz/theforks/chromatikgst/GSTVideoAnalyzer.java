@@ -0,0 +1,113 @@
+package xyz.theforks.chromatikgst;
+
+import org.freedesktop.gstreamer.Buffer;
+import org.freedesktop.gstreamer.FlowReturn;
+import org.freedesktop.gstreamer.Sample;
+import org.freedesktop.gstreamer.Structure;
+import org.freedesktop.gstreamer.elements.AppSink;
+
+import java.nio.IntBuffer;
+
+/**
+ * Computes cheap whole-frame statistics from the tiny, low frame rate analysis branch of a GSTBase
+ * pipeline: frame difference motion and its centroid, average brightness and dominant hue.  Results are
+ * written from the GStreamer streaming thread and read by the pattern on the engine thread.
+ */
+public class GSTVideoAnalyzer implements AppSink.NEW_SAMPLE {
+
+    static public final int WIDTH = 32;
+    static public final int HEIGHT = 24;
+    static public final int FPS = 10;
+    // Mean absolute luma difference that is reported as full motion.
+    static public final float MOTION_SCALE = 0.25f;
+
+    private float[] lastLuma = null;
+
+    public volatile float motion = 0;
+    public volatile float motionX = 0.5f;
+    public volatile float motionY = 0.5f;
+    public volatile float brightness = 0;
+    public volatile float hue = 0;
+
+    /**
+     * @return Description for a bin that branches off a tee.  The appsink is async=false so that it does
+     * not hold up preroll while the valve is dropping.
+     */
+    static public String getBranchDescription() {
+        return "queue leaky=downstream max-size-buffers=1 max-size-bytes=0 max-size-time=0 ! "
+                + "valve name=analysis-valve drop=true ! "
+                + "videorate drop-only=true max-rate=" + FPS + " ! "
+                + "videoscale ! "
+                + "capsfilter caps=video/x-raw,width=" + WIDTH + ",height=" + HEIGHT + " ! "
+                + "appsink name=analysis-output emit-signals=true sync=false async=false drop=true max-buffers=1";
+    }
+
+    @Override
+    public FlowReturn newSample(AppSink elem) {
+        Sample sample = elem.pullSample();
+        try {
+            Structure caps = sample.getCaps().getStructure(0);
+            int width = caps.getInteger("width");
+            int height = caps.getInteger("height");
+            Buffer buffer = sample.getBuffer();
+            IntBuffer pixels = buffer.map(false).asIntBuffer();
+            try {
+                analyze(pixels, width, height);
+            } finally {
+                buffer.unmap();
+            }
+        } finally {
+            sample.dispose();
+        }
+        return FlowReturn.OK;
+    }
+
+    /**
+     * @param pixels 0x00RRGGBB pixels, the same layout ChromatikSink receives.
+     */
+    protected void analyze(IntBuffer pixels, int width, int height) {
+        int count = width * height;
+        if (lastLuma == null || lastLuma.length != count) {
+            lastLuma = new float[count];
+        }
+        double lumaSum = 0, diffSum = 0, diffX = 0, diffY = 0;
+        double hueX = 0, hueY = 0;
+        for (int i = 0; i < count; i++) {
+            int c = pixels.get(i);
+            float r = ((c >> 16) & 0xff) / 255f;
+            float g = ((c >> 8) & 0xff) / 255f;
+            float b = (c & 0xff) / 255f;
+            float luma = 0.2126f * r + 0.7152f * g + 0.0722f * b;
+            lumaSum += luma;
+
+            float diff = Math.abs(luma - lastLuma[i]);
+            lastLuma[i] = luma;
+            diffSum += diff;
+            diffX += diff * (i % width);
+            diffY += diff * (i / width);
+
+            // Circular mean of hue, weighted by chroma so grays don't pull it around.
+            float max = Math.max(r, Math.max(g, b));
+            float chroma = max - Math.min(r, Math.min(g, b));
+            if (chroma > 0) {
+                float h;
+                if (max == r) h = ((g - b) / chroma) / 6f;
+                else if (max == g) h = (2 + (b - r) / chroma) / 6f;
+                else h = (4 + (r - g) / chroma) / 6f;
+                double angle = h * 2 * Math.PI;
+                hueX += chroma * Math.cos(angle);
+                hueY += chroma * Math.sin(angle);
+            }
+        }
+        brightness = (float) (lumaSum / count);
+        motion = (float) Math.min(1, (diffSum / count) / MOTION_SCALE);
+        if (diffSum > 0) {
+            motionX = (float) (diffX / diffSum / Math.max(1, width - 1));
+            motionY = (float) (diffY / diffSum / Math.max(1, height - 1));
+        }
+        if (hueX != 0 || hueY != 0) {
+            double h = Math.atan2(hueY, hueX) / (2 * Math.PI);
+            hue = (float) (h < 0 ? h + 1 : h);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package xyz.theforks.chromatikgst;
+
+import org.freedesktop.gstreamer.*;
+import org.freedesktop.gstreamer.elements.AppSink;
+import org.freedesktop.gstreamer.event.SeekFlags;
+import org.freedesktop.gstreamer.event.SeekType;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.EnumSet;
+
+/**
+ * Child process entry point for isolated GST patterns.  Runs a single GStreamer pipeline and publishes its
+ * frames into a FrameRing file that the pattern in the Chromatik JVM maps and reads.  A decoder crash or
+ * hang only takes down this process, which GSTWorkerProcess then restarts.
+ *
+ * This class must not use LX classes, the worker process only initializes GStreamer and a FrameRing.
+ *
+ * Usage: GSTWorker --ring FILE --width W --height H --source "gst-launch source description" [--loop] [--live]
+ *
+ * Commands are read from stdin, one per line: play, pause, seek NANOS.  The worker exits when stdin is
+ * closed, i.e. when the parent process goes away, and with EXIT_END_OF_STREAM when a non-looping source
+ * ends.
+ */
+public class GSTWorker {
+
+    // Exit status at the end of a non-looping source, which the supervisor doesn't treat as a crash.
+    static public final int EXIT_END_OF_STREAM = 3;
+
+    static private final int SLOTS = 3;
+    static private final long HEARTBEAT_MS = 250;
+    // Without frames for this long while playing, stop heartbeating so the supervisor restarts us.
+    static private final long STALL_NANOS = 5_000_000_000L;
+
+    private final FrameRing ring;
+    private final boolean loop;
+    private final boolean live;
+    private Pipeline pipeline;
+    private volatile boolean playing = true;
+    private volatile long lastSampleNanos = System.nanoTime();
+
+    GSTWorker(FrameRing ring, boolean loop, boolean live) {
+        this.ring = ring;
+        this.loop = loop;
+        this.live = live;
+    }
+
+    static private void log(String message) {
+        System.err.println("GSTWorker: " + message);
+    }
+
+    void start(String source, int width, int height) {
+        String format = (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) ? "BGRx" : "xRGB";
+        String description = source + " ! videoconvert ! videoscale ! "
+                + "video/x-raw,format=" + format + ",width=" + width + ",height=" + height + " ! "
+                // Live sources are already paced, syncing them to the clock only adds latency.
+                + "appsink name=sink emit-signals=true sync=" + !live + " max-buffers=1 drop=true";
+        pipeline = (Pipeline) Gst.parseLaunch(description);
+        AppSink sink = (AppSink) pipeline.getElementByName("sink");
+        sink.connect((AppSink.NEW_SAMPLE) elem -> {
+            Sample sample = elem.pullSample();
+            try {
+                Buffer buffer = sample.getBuffer();
+                ByteBuffer bb = buffer.map(false);
+                try {
+                    ring.write(bb.asIntBuffer());
+                } finally {
+                    buffer.unmap();
+                }
+            } finally {
+                sample.dispose();
+            }
+            lastSampleNanos = System.nanoTime();
+            return FlowReturn.OK;
+        });
+        Bus bus = pipeline.getBus();
+        bus.connect((Bus.EOS) element -> {
+            if (loop) {
+                pipeline.seek(1.0, Format.TIME, EnumSet.of(SeekFlags.FLUSH, SeekFlags.KEY_UNIT),
+                        SeekType.SET, 0, SeekType.NONE, -1);
+            } else {
+                log("End of stream");
+                System.exit(EXIT_END_OF_STREAM);
+            }
+        });
+        bus.connect((Bus.ERROR) (element, code, message) -> {
+            log("Error from " + element.getName() + ": " + message);
+            System.exit(2);
+        });
+        pipeline.play();
+    }
+
+    void handleCommand(String line) {
+        String[] parts = line.trim().split("\\s+");
+        switch (parts[0]) {
+            case "play":
+                playing = true;
+                lastSampleNanos = System.nanoTime();
+                pipeline.play();
+                break;
+            case "pause":
+                playing = false;
+                pipeline.pause();
+                break;
+            case "seek":
+                long position = Long.parseLong(parts[1]);
+                pipeline.seek(1.0, Format.TIME, EnumSet.of(SeekFlags.FLUSH, SeekFlags.KEY_UNIT),
+                        SeekType.SET, position, SeekType.NONE, -1);
+                break;
+            default:
+                log("Unknown command: " + line);
+        }
+    }
+
+    void heartbeatLoop() {
+        while (true) {
+            // A live network source can legitimately go quiet, the supervisor only restarts those on exit.
+            if (live || !playing || System.nanoTime() - lastSampleNanos < STALL_NANOS) {
+                ring.heartbeat();
+            }
+            try {
+                Thread.sleep(HEARTBEAT_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String ringPath = null, source = null;
+        int width = 160, height = 120;
+        boolean loop = false, live = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--ring": ringPath = args[++i]; break;
+                case "--width": width = Integer.parseInt(args[++i]); break;
+                case "--height": height = Integer.parseInt(args[++i]); break;
+                case "--source": source = args[++i]; break;
+                case "--loop": loop = true; break;
+                case "--live": live = true; break;
+                default:
+                    log("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+        if (ringPath == null || source == null) {
+            log("Usage: GSTWorker --ring FILE --width W --height H --source DESC [--loop] [--live]");
+            System.exit(1);
+        }
+
+        Gst.init(Version.BASELINE, "GSTWorker");
+        FrameRing ring = FrameRing.create(new File(ringPath), width, height, SLOTS);
+        GSTWorker worker = new GSTWorker(ring, loop, live);
+        ring.heartbeat();
+        worker.start(source, width, height);
+
+        Thread heartbeat = new Thread(worker::heartbeatLoop, "GSTWorker-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!line.isBlank()) {
+                try {
+                    worker.handleCommand(line);
+                } catch (RuntimeException e) {
+                    log("Bad command " + line + ": " + e.getMessage());
+                }
+            }
+        }
+        // Parent went away.
+        worker.pipeline.stop();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,234 @@
+package xyz.theforks.chromatikgst;
+
+import heronarts.lx.LX;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Supervises a GSTWorker child process for an isolated GST pattern.  The pattern calls poll() once per
+ * engine frame.  If the worker exits, or stops heartbeating into its ring file, it is killed and restarted
+ * after a short backoff, so a decoder fault costs a blip on one pattern instead of the Chromatik JVM.
+ *
+ * A worker that exits at the end of a non-looping source is not restarted, the pattern keeps showing the
+ * last frame in the ring until the next seek, such as a sync restart, starts a new worker at that position.
+ */
+public class GSTWorkerProcess {
+
+    // A worker that has not heartbeated for this long is considered hung.
+    static public final long HEARTBEAT_TIMEOUT_MS = 2000;
+    static private final long MIN_RESTART_DELAY_MS = 250;
+    static private final long MAX_RESTART_DELAY_MS = 5000;
+    // Time allowed for the JVM and GStreamer to start before heartbeats are expected.
+    static private final long STARTUP_GRACE_MS = 10000;
+
+    private final String name;
+    private final File ringFile;
+    private final int width;
+    private final int height;
+    private final String source;
+    private final boolean loop;
+    private final boolean live;
+
+    private Process process;
+    private OutputStream commands;
+    private long startMillis;
+    private long restartAtMillis = 0;
+    private long restartDelayMs = MIN_RESTART_DELAY_MS;
+    private boolean playing = true;
+    private long pausedSeek = -1;
+    // Set when the worker reached the end of the stream and exited.
+    private boolean ended = false;
+    private long endedSeek = -1;
+
+    public GSTWorkerProcess(String name, File ringFile, int width, int height, String source, boolean loop, boolean live) {
+        this.name = name;
+        this.ringFile = ringFile;
+        this.width = width;
+        this.height = height;
+        this.source = source;
+        this.loop = loop;
+        this.live = live;
+    }
+
+    public File getRingFile() {
+        return ringFile;
+    }
+
+    /**
+     * The jar this class was loaded from contains GSTWorker and, for a packaged build, GStreamer and JNA.
+     * The host classpath is appended for development runs from target/classes.
+     */
+    static protected String getWorkerClasspath() {
+        String classpath = System.getProperty("java.class.path", "");
+        try {
+            File codeSource = new File(GSTWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            classpath = codeSource.getAbsolutePath() + (classpath.isEmpty() ? "" : File.pathSeparator + classpath);
+        } catch (Exception e) {
+            LX.log("Unable to locate ChromatikGST classes for worker: " + e.getMessage());
+        }
+        return classpath;
+    }
+
+    public synchronized void start() {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        String jnaPath = System.getProperty("jna.library.path");
+        if (jnaPath != null) {
+            command.add("-Djna.library.path=" + jnaPath);
+        }
+        command.add("-cp");
+        command.add(getWorkerClasspath());
+        command.add(GSTWorker.class.getName());
+        command.add("--ring");
+        command.add(ringFile.getAbsolutePath());
+        command.add("--width");
+        command.add(Integer.toString(width));
+        command.add("--height");
+        command.add(Integer.toString(height));
+        command.add("--source");
+        command.add(source);
+        if (loop) command.add("--loop");
+        if (live) command.add("--live");
+
+        // A ring left by a previous worker would look like a hung worker until the new one recreates it.
+        ringFile.delete();
+        startMillis = System.currentTimeMillis();
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            commands = process.getOutputStream();
+            GSTMetrics.increment("worker.starts");
+            Thread output = new Thread(() -> forwardOutput(process), "GSTWorker-output-" + name);
+            output.setDaemon(true);
+            output.start();
+            // Bring a restarted worker back to the state the pattern expects.
+            if (!playing) {
+                send("pause");
+                if (pausedSeek >= 0) {
+                    send("seek " + pausedSeek);
+                }
+            } else if (endedSeek >= 0) {
+                send("seek " + endedSeek);
+            }
+            endedSeek = -1;
+        } catch (IOException e) {
+            LX.error(e, "Unable to start GST worker for " + name);
+            process = null;
+            scheduleRestart();
+        }
+    }
+
+    private void forwardOutput(Process p) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LX.log("[" + name + " worker] " + line);
+            }
+        } catch (IOException e) {
+            // Worker exited.
+        }
+    }
+
+    private synchronized void send(String command) {
+        if (commands == null) {
+            return;
+        }
+        try {
+            commands.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+            commands.flush();
+        } catch (IOException e) {
+            // The worker died, poll() restarts it.
+        }
+    }
+
+    public void play() {
+        playing = true;
+        pausedSeek = -1;
+        send("play");
+    }
+
+    public void pause() {
+        playing = false;
+        send("pause");
+    }
+
+    public synchronized void seek(long positionNanos) {
+        if (!playing) {
+            pausedSeek = positionNanos;
+        }
+        if (ended) {
+            // Start a new worker on the next poll.
+            ended = false;
+            endedSeek = positionNanos;
+            restartAtMillis = 0;
+            return;
+        }
+        send("seek " + positionNanos);
+    }
+
+    /**
+     * Called from the engine thread every frame.  Cheap unless the worker needs restarting.
+     * @param ring The pattern's reader for the worker's ring, or null if it isn't open yet.
+     * @return True if the worker was restarted, the caller should reopen the ring.
+     */
+    public synchronized boolean poll(FrameRing ring) {
+        long now = System.currentTimeMillis();
+        if (process == null) {
+            if (!ended && now >= restartAtMillis) {
+                start();
+                return true;
+            }
+            return false;
+        }
+        boolean hung = false;
+        if (!process.isAlive() && process.exitValue() == GSTWorker.EXIT_END_OF_STREAM) {
+            if (GSTUtil.VERBOSE) LX.log("GST worker for " + name + " reached the end of the stream");
+            GSTMetrics.increment("worker.ends");
+            kill();
+            ended = true;
+            restartDelayMs = MIN_RESTART_DELAY_MS;
+            return false;
+        } else if (!process.isAlive()) {
+            LX.log("GST worker for " + name + " exited with " + process.exitValue() + ", restarting");
+        } else if (now - startMillis > STARTUP_GRACE_MS
+                && (ring == null || now - ring.getHeartbeatMillis() > HEARTBEAT_TIMEOUT_MS)) {
+            LX.log("GST worker for " + name + " stopped responding, restarting");
+            hung = true;
+        } else {
+            if (now - startMillis > STARTUP_GRACE_MS) {
+                // Healthy for a while, reset the backoff.
+                restartDelayMs = MIN_RESTART_DELAY_MS;
+            }
+            return false;
+        }
+        GSTMetrics.increment(hung ? "worker.hangs" : "worker.exits");
+        kill();
+        scheduleRestart();
+        return false;
+    }
+
+    private void scheduleRestart() {
+        restartAtMillis = System.currentTimeMillis() + restartDelayMs;
+        restartDelayMs = Math.min(MAX_RESTART_DELAY_MS, restartDelayMs * 2);
+    }
+
+    private void kill() {
+        if (process != null) {
+            process.destroyForcibly();
+            process = null;
+            commands = null;
+        }
+    }
+
+    public synchronized void stop() {
+        kill();
+        ended = false;
+        ringFile.delete();
+    }
+}
@@ -0,0 +1,131 @@
+package xyz.theforks.chromatikgst;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A headerless file of fixed size raw video frames, e.g. the output of
+ * ffmpeg -i in.mp4 -f rawvideo -pix_fmt rgb24 out.rgb
+ * The file is memory mapped and a frame is found by its number, so random access costs the same as
+ * sequential playback and nothing is decoded.  Files over 2GB are mapped in segments of whole frames.
+ */
+public class RawFrameFile implements Closeable {
+
+    public enum Format {
+        RGB(3),
+        BGR(3),
+        RGBA(4),
+        BGRA(4);
+
+        public final int bytesPerPixel;
+
+        Format(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final Format format;
+    private final int frameBytes;
+    private final int frameCount;
+    private final int framesPerSegment;
+    private final MappedByteBuffer[] segments;
+
+    public RawFrameFile(File file, int width, int height, Format format) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Invalid raw frame size " + width + "x" + height);
+        }
+        long bytes = (long) width * height * format.bytesPerPixel;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Raw frame size too large " + width + "x" + height);
+        }
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.frameBytes = (int) bytes;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        long count = channel.size() / frameBytes;
+        if (count == 0) {
+            channel.close();
+            throw new IOException("Raw file " + file + " is smaller than one " + width + "x" + height + " frame");
+        }
+        this.frameCount = (int) Math.min(Integer.MAX_VALUE, count);
+        this.framesPerSegment = Math.max(1, Integer.MAX_VALUE / frameBytes);
+        this.segments = new MappedByteBuffer[(frameCount + framesPerSegment - 1) / framesPerSegment];
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    private MappedByteBuffer getSegment(int segment) throws IOException {
+        if (segments[segment] == null) {
+            long start = (long) segment * framesPerSegment * frameBytes;
+            int frames = Math.min(framesPerSegment, frameCount - segment * framesPerSegment);
+            segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, start, (long) frames * frameBytes);
+        }
+        return segments[segment];
+    }
+
+    /**
+     * Copies a frame into 0x00RRGGBB pixels.
+     * @param frame Frame number, 0 to getFrameCount() - 1.
+     * @param pixels At least width * height ints.
+     */
+    public void read(int frame, int[] pixels) throws IOException {
+        MappedByteBuffer segment = getSegment(frame / framesPerSegment);
+        int offset = (frame % framesPerSegment) * frameBytes;
+        int n = width * height;
+        switch (format) {
+            case RGB:
+                for (int i = 0; i < n; i++, offset += 3) {
+                    pixels[i] = (segment.get(offset) & 0xff) << 16 | (segment.get(offset + 1) & 0xff) << 8
+                            | (segment.get(offset + 2) & 0xff);
+                }
+                break;
+            case BGR:
+                for (int i = 0; i < n; i++, offset += 3) {
+                    pixels[i] = (segment.get(offset + 2) & 0xff) << 16 | (segment.get(offset + 1) & 0xff) << 8
+                            | (segment.get(offset) & 0xff);
+                }
+                break;
+            case RGBA:
+                for (int i = 0; i < n; i++, offset += 4) {
+                    pixels[i] = (segment.get(offset) & 0xff) << 16 | (segment.get(offset + 1) & 0xff) << 8
+                            | (segment.get(offset + 2) & 0xff);
+                }
+                break;
+            case BGRA:
+                for (int i = 0; i < n; i++, offset += 4) {
+                    pixels[i] = (segment.get(offset + 2) & 0xff) << 16 | (segment.get(offset + 1) & 0xff) << 8
+                            | (segment.get(offset) & 0xff);
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,72 @@
+package xyz.theforks.chromatikgst;
+
+/**
+ * The per-point inner loop of GSTBase.renderWithUV: gather each point's pixel from the frame, run it
+ * through the color LUT and write the color to the point's index.
+ *
+ * The default implementation is scalar.  When the package was built with the simd profile and the JVM was
+ * started with --add-modules jdk.incubator.vector, get() returns VectorSampleKernel, which does the pixel
+ * gather, the channel unpacking, the three LUT lookups and the scatter with the Vector API.  Both produce
+ * identical output, see SampleKernelBench.  Kernels keep scratch space, so each pattern gets its own.
+ *
+ * The vector kernel is only picked by default on JDK 21 and later.  Early JDK 17 updates crash in C2 when
+ * compiling its gathers and scatters, so on 17 it has to be asked for with -Dchromatikgst.simd=true.
+ * Set -Dchromatikgst.simd=false to force the scalar loop.
+ */
+public class SampleKernel {
+
+    static private Boolean useVector;
+
+    /**
+     * @return A new instance of the fastest kernel this JVM supports, for use from one thread.
+     */
+    static public synchronized SampleKernel get() {
+        if (useVector == null) {
+            useVector = isVectorAvailable();
+        }
+        SampleKernel kernel = useVector ? createVectorKernel() : null;
+        if (kernel == null) {
+            useVector = false;
+            kernel = new SampleKernel();
+        }
+        return kernel;
+    }
+
+    static public boolean isVectorAvailable() {
+        String simd = System.getProperty("chromatikgst.simd");
+        if ("false".equals(simd) || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return false;
+        }
+        return "true".equals(simd) || Runtime.version().feature() >= 21;
+    }
+
+    static private SampleKernel createVectorKernel() {
+        // Only reference the vector class once the module is known to be present, otherwise loading it
+        // fails with NoClassDefFoundError.
+        try {
+            return (SampleKernel) Class.forName("xyz.theforks.chromatikgst.VectorSampleKernel")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not built with the simd profile.
+            return null;
+        }
+    }
+
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * For i in [from, to): out[pointIndex[i]] = lut(pixels[pixelOffset[i]]).
+     */
+    public void sample(int[] pixels, int[] pointIndex, int[] pixelOffset, int from, int to,
+                       ColorLUT lut, int[] out) {
+        final int[] lutRed = lut.red;
+        final int[] lutGreen = lut.green;
+        final int[] lutBlue = lut.blue;
+        for (int i = from; i < to; i++) {
+            int color = pixels[pixelOffset[i]];
+            out[pointIndex[i]] = 0xff000000 | lutRed[(color >> 16) & 0xff] | lutGreen[(color >> 8) & 0xff] | lutBlue[color & 0xff];
+        }
+    }
+}
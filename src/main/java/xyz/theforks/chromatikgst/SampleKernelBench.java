@@ -0,0 +1,105 @@
+package xyz.theforks.chromatikgst;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the scalar and vector SampleKernels produce identical output and times them, along with the
+ * frame copy ChromatikSink does, on a synthetic model.  The vector kernel is built by the simd profile and
+ * needs the incubator module, which the kernelbench profile adds, and on JDK 17 also
+ * -Dchromatikgst.simd=true, see SampleKernel:
+ *
+ * mvn -Psimd,kernelbench compile exec:exec
+ *
+ * Options:
+ *   --points P       number of points (default 150000)
+ *   --width W        frame width (default 640)
+ *   --height H       frame height (default 480)
+ *   --iterations N   timed iterations per kernel (default 2000)
+ *
+ * Exits with status 1 if the outputs differ.
+ */
+public class SampleKernelBench {
+
+    public static void main(String[] args) {
+        int points = 150000, width = 640, height = 480, iterations = 2000;
+        for (int i = 0; i < args.length - 1; i += 2) {
+            int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--points": points = value; break;
+                case "--width": width = value; break;
+                case "--height": height = value; break;
+                case "--iterations": iterations = value; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        Random random = new Random(1);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() & 0xffffff;
+        }
+        // A 16:9 grid of points scaled onto the frame and ordered by tile, as SamplingPlan orders them.
+        int cols = (int) Math.ceil(Math.sqrt(points * 16.0 / 9.0));
+        int rows = (points + cols - 1) / cols;
+        int tilesX = (width + SamplingPlan.TILE - 1) / SamplingPlan.TILE;
+        Integer[] order = new Integer[points];
+        int[] offsets = new int[points];
+        int[] tiles = new int[points];
+        for (int i = 0; i < points; i++) {
+            int x = Math.round((i % cols) / (float) Math.max(1, cols - 1) * (width - 1));
+            int y = Math.round((i / cols) / (float) Math.max(1, rows - 1) * (height - 1));
+            offsets[i] = y * width + x;
+            tiles[i] = (y / SamplingPlan.TILE) * tilesX + x / SamplingPlan.TILE;
+            order[i] = i;
+        }
+        Arrays.sort(order, (p1, p2) -> tiles[p1] != tiles[p2] ? Integer.compare(tiles[p1], tiles[p2]) : Integer.compare(p1, p2));
+        int[] pixelOffset = new int[points];
+        int[] pointIndex = new int[points];
+        for (int i = 0; i < points; i++) {
+            pointIndex[i] = order[i];
+            pixelOffset[i] = offsets[order[i]];
+        }
+        ColorLUT lut = new ColorLUT();
+        lut.build(2.2f, 0.9f, 1f, 0.95f, 0.9f, true);
+
+        SampleKernel scalar = new SampleKernel();
+        SampleKernel best = SampleKernel.get();
+        int[] expected = new int[points];
+        int[] actual = new int[points];
+        scalar.sample(pixels, pointIndex, pixelOffset, 0, points, lut, expected);
+        // Odd ranges exercise the scalar tail of the vector loop.
+        best.sample(pixels, pointIndex, pixelOffset, 0, 7, lut, actual);
+        best.sample(pixels, pointIndex, pixelOffset, 7, points, lut, actual);
+        boolean identical = Arrays.equals(expected, actual);
+        System.out.println("Kernels: scalar, " + best.getName() + " output " + (identical ? "identical" : "DIFFERS"));
+
+        time("sample " + scalar.getName(), points, iterations,
+                () -> scalar.sample(pixels, pointIndex, pixelOffset, 0, pixelOffset.length, lut, expected));
+        if (best.getClass() != SampleKernel.class) {
+            time("sample " + best.getName(), points, iterations,
+                    () -> best.sample(pixels, pointIndex, pixelOffset, 0, pixelOffset.length, lut, actual));
+        }
+
+        ByteBuffer frame = ByteBuffer.allocateDirect(pixels.length * 4).order(ByteOrder.nativeOrder());
+        int[] copy = new int[pixels.length];
+        time("frame copy IntBuffer.get", pixels.length, iterations, () -> frame.asIntBuffer().get(copy));
+
+        System.exit(identical ? 0 : 1);
+    }
+
+    static private void time(String name, int items, int iterations, Runnable body) {
+        // Warm up past C2 compilation before timing.
+        for (int i = 0; i < Math.max(200, iterations / 4); i++) {
+            body.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            body.run();
+        }
+        double nanos = (System.nanoTime() - start) / (double) iterations;
+        System.out.println(String.format("%-28s %8.1f us/frame %6.2f ns/item", name, nanos / 1000, nanos / items));
+    }
+}
@@ -0,0 +1,203 @@
+package xyz.theforks.chromatikgst;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The per-point work of GSTBase.renderWithUV compiled down to a pixel offset per point, for one frame size
+ * and one set of uv parameters.  Points are grouped by the TILE x TILE pixel tile they sample from so that
+ * when only part of a frame changed, only the points in changed tiles need to be sampled again.
+ */
+public class SamplingPlan {
+
+    static public final int TILE = 16;
+
+    public final int width;
+    public final int height;
+    public final int tilesX;
+    public final int tilesY;
+    // Point indices and pixel offsets, ordered by tile.  Points in tile t are tileStart[t] to
+    // tileStart[t + 1] - 1.
+    public final int[] pointIndex;
+    public final int[] pixelOffset;
+    public final int[] tileStart;
+    // Points whose uv falls outside of the frame.  They are always black.
+    public final int[] outsideIndex;
+    // True if a point index was beyond the colors array, i.e. the uvs are stale.
+    public final boolean staleUVs;
+
+    /**
+     * @param params uOffset, vOffset, uWidth, vHeight, flipX, flipY, tileX, tileY and rotate as in GSTBase.
+     */
+    public SamplingPlan(List<UVPoint> uvPoints, int numColors, int width, int height, float[] params) {
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE - 1) / TILE;
+        this.tilesY = (height + TILE - 1) / TILE;
+        float uOffset = params[0], vOffset = params[1], uWidth = params[2], vHeight = params[3];
+        boolean flipX = params[4] != 0, flipY = params[5] != 0;
+        int tileX = (int) params[6], tileY = (int) params[7];
+        float rotate = params[8];
+
+        int n = uvPoints.size();
+        int[] offsets = new int[n];
+        int[] tiles = new int[n];
+        int[] counts = new int[tilesX * tilesY + 1];
+        int outside = 0;
+        boolean stale = false;
+        float[] uvs = {0f, 0f};
+        for (int i = 0; i < n; i++) {
+            UVPoint uv = uvPoints.get(i);
+            if (uv.point.index >= numColors) {
+                stale = true;
+                tiles[i] = -2;
+                continue;
+            }
+            uvs[0] = uv.u;
+            uvs[1] = uv.v;
+            if (flipX) {
+                uvs[0] = 1f - uvs[0];
+            }
+            if (flipY) {
+                uvs[1] = 1f - uvs[1];
+            }
+            if (tileX > 1) {
+                uvs[0] = (uvs[0] * tileX - 0.01f) % 1f;
+            }
+            if (tileY > 1) {
+                uvs[1] = (uvs[1] * tileY - 0.01f) % 1f;
+            }
+            if (rotate > 0) {
+                rotateUV(uvs[0], uvs[1], rotate * (float) Math.PI * 2, uvs);
+            }
+            int x = Math.round((uOffset + uvs[0] * uWidth) * (width - 1));
+            int y = Math.round((vOffset + uvs[1] * vHeight) * (height - 1));
+            if (x >= 0 && x < width && y >= 0 && y < height) {
+                offsets[i] = y * width + x;
+                tiles[i] = (y / TILE) * tilesX + (x / TILE);
+                counts[tiles[i] + 1]++;
+            } else {
+                tiles[i] = -1;
+                outside++;
+            }
+        }
+        staleUVs = stale;
+
+        // Counting sort of the points by tile.
+        tileStart = new int[tilesX * tilesY + 1];
+        for (int t = 0; t < tilesX * tilesY; t++) {
+            tileStart[t + 1] = tileStart[t] + counts[t + 1];
+        }
+        int inside = tileStart[tilesX * tilesY];
+        pointIndex = new int[inside];
+        pixelOffset = new int[inside];
+        outsideIndex = new int[outside];
+        int[] next = new int[tilesX * tilesY];
+        System.arraycopy(tileStart, 0, next, 0, next.length);
+        int o = 0;
+        for (int i = 0; i < n; i++) {
+            if (tiles[i] >= 0) {
+                int slot = next[tiles[i]]++;
+                pointIndex[slot] = uvPoints.get(i).point.index;
+                pixelOffset[slot] = offsets[i];
+            } else if (tiles[i] == -1) {
+                outsideIndex[o++] = uvPoints.get(i).point.index;
+            }
+        }
+    }
+
+    private SamplingPlan(int width, int height, int[] pointIndex, int[] pixelOffset, int[] tileStart,
+                         int[] outsideIndex) {
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE - 1) / TILE;
+        this.tilesY = (height + TILE - 1) / TILE;
+        this.pointIndex = pointIndex;
+        this.pixelOffset = pixelOffset;
+        this.tileStart = tileStart;
+        this.outsideIndex = outsideIndex;
+        this.staleUVs = false;
+    }
+
+    /**
+     * Writes the compiled plan for GSTUVCache.  Plans with stale uvs are never written.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(height);
+        writeInts(out, pointIndex);
+        writeInts(out, pixelOffset);
+        writeInts(out, tileStart);
+        writeInts(out, outsideIndex);
+    }
+
+    static public SamplingPlan read(DataInputStream in) throws IOException {
+        int width = in.readInt();
+        int height = in.readInt();
+        int[] pointIndex = readInts(in);
+        int[] pixelOffset = readInts(in);
+        int[] tileStart = readInts(in);
+        int[] outsideIndex = readInts(in);
+        int tiles = ((width + TILE - 1) / TILE) * ((height + TILE - 1) / TILE);
+        if (width <= 0 || height <= 0 || pointIndex.length != pixelOffset.length || tileStart.length != tiles + 1
+                || tileStart[tiles] != pointIndex.length) {
+            throw new IOException("Invalid sampling plan");
+        }
+        return new SamplingPlan(width, height, pointIndex, pixelOffset, tileStart, outsideIndex);
+    }
+
+    static private void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int v : values) {
+            out.writeInt(v);
+        }
+    }
+
+    static private int[] readInts(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            throw new IOException("Invalid array length " + n);
+        }
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    static public void rotateUV(float u, float v, float rad, float[] results) {
+        // Rotate a UV coordinate around the origin by rad radians. uv are 0 to 1 normalized coordinates.
+        // we want to rotate around the center at 0.5, 0.5.
+        float x = u - 0.5f;
+        float y = v - 0.5f;
+        float cos = (float) Math.cos(rad);
+        float sin = (float) Math.sin(rad);
+        results[0] = x * cos - y * sin + 0.5f;
+        results[1] = x * sin + y * cos + 0.5f;
+    }
+
+    public boolean matches(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+
+    /**
+     * @return True if any pixel in tile t differs between the two frames, which must be this plan's size.
+     */
+    public boolean tileChanged(int[] previous, int[] current, int t) {
+        int x0 = (t % tilesX) * TILE;
+        int y0 = (t / tilesX) * TILE;
+        int x1 = Math.min(width, x0 + TILE);
+        int y1 = Math.min(height, y0 + TILE);
+        for (int y = y0; y < y1; y++) {
+            int from = y * width + x0;
+            int to = y * width + x1;
+            if (Arrays.mismatch(previous, from, to, current, from, to) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -4,7 +4,56 @@ import heronarts.lx.model.LXModel;
 import heronarts.lx.model.LXPoint;
 import heronarts.lx.transform.LXMatrix;
 
+import java.util.List;
+
 public class UVUtil {
+
+    /**
+     * Computes normalized uv coordinates for every point in the model by rotating the model's plane into
+     * the XY plane.
+     * @param model The model, typically a view of one or more grid fixtures.
+     * @param uvPoints Receives one UVPoint per model point, in model point order.
+     */
+    static public void computeUVPoints(LXModel model, List<UVPoint> uvPoints) {
+        float[] planeNormal = UVUtil.computePlaneNormal(model);
+        //LX.log("Plane normal= " + planeNormal[0] + " " + planeNormal[1] + " " + planeNormal[2]);
+
+        UVUtil.normalizePlaneNormal(planeNormal);
+        //LX.log("Normalized plane normal= " + planeNormal[0] + " " + planeNormal[1] + " " + planeNormal[2]);
+
+        float[] rotateAxisAngle = UVUtil.computeAxesRotates(planeNormal);
+        float[] rotateAxis = {rotateAxisAngle[0], rotateAxisAngle[1], rotateAxisAngle[2]};
+        float rotateAngle = rotateAxisAngle[3];
+        //LX.log("Rotate angle: " + rotateAngle);
+        float[] rotatedPoint = new float[3];
+        //LX.log("Updating UV coordinates. Rotating plane to XY plane: " + rotateAxis[0] + " " + rotateAxis[1] + " " + rotateAxis[2] + " " + rotateAngle);
+
+        // NOTE: Using just the plane normal doesn't handle the 'Roll' of the fixture.
+        UVUtil.normalizePlaneNormal(rotateAxis);
+        boolean vectorNonZero = UVUtil.vectorLength(rotateAxis) > 0;
+        for (LXPoint p : model.points) {
+            // For each point, rotate by rotateAxisAngle to get the plane normal to the XY plane.
+            // And then construct the UVPoint from the x and y coordinates.
+            float[] point = {p.x, p.y, p.z};
+
+            // Rotate the point to the XY plane
+            //if (vectorNonZero) {
+                UVUtil.rotatePointAroundAxis(point, rotateAxis, rotateAngle, rotatedPoint);
+            //} else {
+            //    rotatedPoint[0] = point[0];
+            //    rotatedPoint[1] = point[1];
+            //    rotatedPoint[2] = point[2];
+            //}
+
+            UVPoint uv = new UVPoint(p, rotatedPoint[0], rotatedPoint[1]);
+            uv.u = p.x;
+            uv.v = p.y;
+            uvPoints.add(uv);
+        }
+        // Points are still in world space.  Renormalize the UVs to be between 0 and 1.
+        UVPoint.renormalizeUVs(uvPoints);
+    }
+
     static public float vectorLength(float[] v) {
         return (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
     }
@@ -0,0 +1,47 @@
+package xyz.theforks.chromatikgst;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API version of SampleKernel.sample.  Each lane gathers a pixel by its offset, splits it into
+ * channels with shifts and masks, gathers the three LUT entries and scatters the combined color to the
+ * point index.  Only loaded by SampleKernel.get() when jdk.incubator.vector is present, and only compiled
+ * by the simd profile.
+ */
+class VectorSampleKernel extends SampleKernel {
+
+    static private final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    // LUT indices of one vector, reused for every gather.
+    private final int[] channel = new int[SPECIES.length()];
+
+    @Override
+    public String getName() {
+        return "vector" + SPECIES.length();
+    }
+
+    @Override
+    public void sample(int[] pixels, int[] pointIndex, int[] pixelOffset, int from, int to,
+                       ColorLUT lut, int[] out) {
+        final int[] lutRed = lut.red;
+        final int[] lutGreen = lut.green;
+        final int[] lutBlue = lut.blue;
+        final int lanes = SPECIES.length();
+        final int[] channel = this.channel;
+        final int upper = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < upper; i += lanes) {
+            IntVector color = IntVector.fromArray(SPECIES, pixels, 0, pixelOffset, i);
+            color.lanewise(VectorOperators.LSHR, 16).and(0xff).intoArray(channel, 0);
+            IntVector red = IntVector.fromArray(SPECIES, lutRed, 0, channel, 0);
+            color.lanewise(VectorOperators.LSHR, 8).and(0xff).intoArray(channel, 0);
+            IntVector green = IntVector.fromArray(SPECIES, lutGreen, 0, channel, 0);
+            color.and(0xff).intoArray(channel, 0);
+            IntVector blue = IntVector.fromArray(SPECIES, lutBlue, 0, channel, 0);
+            red.or(green).or(blue).or(0xff000000).intoArray(out, 0, pointIndex, i);
+        }
+        super.sample(pixels, pointIndex, pixelOffset, i, to, lut, out);
+    }
+}